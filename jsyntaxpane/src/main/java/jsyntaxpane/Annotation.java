@@ -0,0 +1,65 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.awt.Color;
+
+/**
+ * A colored range of a document, in an {@link AnnotationLayer}.  Like the
+ * elements of a document, the range follows the edits made around it.
+ *
+ * Annotations are the nodes of the interval tree of their layer.  Their
+ * offsets are only up to date when they have just been returned by the
+ * layer, and until the document or the layer is changed.
+ *
+ * @author Ayman Al-Sairafi
+ */
+public final class Annotation {
+
+    final Color color;
+    final int priority;
+    int start;
+    int end;
+    // the largest end in the subtree of this node
+    int maxEnd;
+    // shift still to add to the offsets of the children
+    int lazy;
+    Annotation left;
+    Annotation right;
+
+    Annotation(int start, int end, Color color, int priority) {
+        this.start = start;
+        this.end = end;
+        this.maxEnd = end;
+        this.color = color;
+        this.priority = priority;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public Color getColor() {
+        return color;
+    }
+
+    @Override
+    public String toString() {
+        return "Annotation(" + start + ", " + end + ", " + color + ")";
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A named set of {@link Annotation}s of a document, like the search matches
+ * or the marked pairs.  The annotations are kept in an interval tree: a
+ * treap ordered by start, where each node knows the largest end below it.
+ * So the annotations of the visible lines are found without looking at the
+ * others, and clearing a layer drops its tree at once.
+ *
+ * Edits shift the annotations after them by splitting the tree at the edit
+ * and adding the shift to the root of the right part.  That shift is pushed
+ * down to the children as they are visited.  Only the annotations that
+ * overlap the edit are taken out and put back.  An annotation that an edit
+ * removes completely is dropped.
+ *
+ * Layers are used on the event dispatch thread, or under the document lock.
+ *
+ * @author Ayman Al-Sairafi
+ */
+public final class AnnotationLayer {
+
+    private final String name;
+    private final Annotations annotations;
+    private final Random random = new Random();
+    private Annotation root;
+    private int size;
+    // the parts of the last split
+    private Annotation splitLeft;
+    private Annotation splitRight;
+    // whether the last remove found the node
+    private boolean removed;
+
+    AnnotationLayer(String name, Annotations annotations) {
+        this.name = name;
+        this.annotations = annotations;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of annotations
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * Adds an annotation from start to end, painted with the given color
+     */
+    public Annotation add(int start, int end, Color color) {
+        Annotation a = new Annotation(start, end, color, random.nextInt());
+        insert(a);
+        size++;
+        annotations.damage(start, end);
+        return a;
+    }
+
+    /**
+     * Removes the given annotation, if it is in this layer
+     */
+    public void remove(Annotation a) {
+        if (detach(a)) {
+            size--;
+            annotations.damage(a.start, a.end);
+        }
+    }
+
+    /**
+     * Removes all annotations
+     */
+    public void clear() {
+        if (root != null) {
+            annotations.damage(getStart(root), root.maxEnd);
+            root = null;
+            size = 0;
+        }
+    }
+
+    /**
+     * Adds the annotations that overlap the range from start to end to the
+     * given list, in document order
+     */
+    public void getAnnotations(int start, int end, List<Annotation> list) {
+        collect(root, start, end, list);
+    }
+
+    /**
+     * Moves the annotations after an insert of length chars at offset
+     */
+    void insertUpdate(int offset, int length) {
+        if (root == null || length == 0) {
+            return;
+        }
+        // the annotations around the offset grow, the others move
+        List<Annotation> around = take(offset, offset);
+        shift(offset, length);
+        for (Annotation a : around) {
+            a.end += length;
+            put(a);
+        }
+    }
+
+    /**
+     * Moves the annotations after a removal of length chars at offset
+     */
+    void removeUpdate(int offset, int length) {
+        if (root == null || length == 0) {
+            return;
+        }
+        int end = offset + length;
+        List<Annotation> overlapping = take(offset, end);
+        shift(end, -length);
+        for (Annotation a : overlapping) {
+            boolean empty = a.start == a.end;
+            a.start = a.start < offset ? a.start : Math.max(offset, a.start - length);
+            a.end = a.end < offset ? a.end : Math.max(offset, a.end - length);
+            if (empty || a.start < a.end) {
+                put(a);
+            } else {
+                size--;
+            }
+        }
+    }
+
+    /*
+     * Takes the annotations that start before end and end after start
+     * out of the tree
+     */
+    private List<Annotation> take(int start, int end) {
+        List<Annotation> list = new ArrayList<Annotation>();
+        collect(root, start, end, list);
+        for (Annotation a : list) {
+            detach(a);
+        }
+        return list;
+    }
+
+    /*
+     * Puts an annotation that was taken out back into the tree
+     */
+    private void put(Annotation a) {
+        a.left = null;
+        a.right = null;
+        a.lazy = 0;
+        a.maxEnd = a.end;
+        insert(a);
+    }
+
+    /*
+     * Adds shift to the annotations that start at or after offset
+     */
+    private void shift(int offset, int shift) {
+        split(root, offset);
+        Annotation left = splitLeft;
+        Annotation right = splitRight;
+        apply(right, shift);
+        root = merge(left, right);
+    }
+
+    private void insert(Annotation a) {
+        split(root, a.start);
+        Annotation left = splitLeft;
+        Annotation right = splitRight;
+        root = merge(merge(left, a), right);
+    }
+
+    /*
+     * Removes the given node from the tree
+     * @return false if it is not in the tree
+     */
+    private boolean detach(Annotation a) {
+        split(root, a.start);
+        Annotation left = splitLeft;
+        split(splitRight, a.start + 1);
+        // the nodes with the start of a
+        Annotation same = remove(splitLeft, a);
+        Annotation right = splitRight;
+        root = merge(merge(left, same), right);
+        if (!removed) {
+            // the offsets of a are from before an edit, so look everywhere
+            root = remove(root, a);
+        }
+        return removed;
+    }
+
+    /*
+     * Removes node a from tree t, and sets removed if it was there
+     */
+    private Annotation remove(Annotation t, Annotation a) {
+        removed = false;
+        return removeFrom(t, a);
+    }
+
+    private Annotation removeFrom(Annotation t, Annotation a) {
+        if (t == null) {
+            return null;
+        }
+        push(t);
+        if (t == a) {
+            removed = true;
+            return merge(t.left, t.right);
+        }
+        t.left = removeFrom(t.left, a);
+        if (!removed) {
+            t.right = removeFrom(t.right, a);
+        }
+        pull(t);
+        return t;
+    }
+
+    private static void collect(Annotation t, int start, int end, List<Annotation> list) {
+        if (t == null || t.maxEnd <= start) {
+            return;
+        }
+        push(t);
+        collect(t.left, start, end, list);
+        if (t.start < end) {
+            if (t.end > start) {
+                list.add(t);
+            }
+            collect(t.right, start, end, list);
+        }
+    }
+
+    /*
+     * Splits t into splitLeft, the nodes that start before pos, and
+     * splitRight, the others
+     */
+    private void split(Annotation t, int pos) {
+        if (t == null) {
+            splitLeft = null;
+            splitRight = null;
+            return;
+        }
+        push(t);
+        if (t.start < pos) {
+            split(t.right, pos);
+            t.right = splitLeft;
+            pull(t);
+            splitLeft = t;
+        } else {
+            split(t.left, pos);
+            t.left = splitRight;
+            pull(t);
+            splitRight = t;
+        }
+    }
+
+    /*
+     * Joins two trees, all nodes of a starting before those of b
+     */
+    private static Annotation merge(Annotation a, Annotation b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            push(a);
+            a.right = merge(a.right, b);
+            pull(a);
+            return a;
+        } else {
+            push(b);
+            b.left = merge(a, b.left);
+            pull(b);
+            return b;
+        }
+    }
+
+    private static void apply(Annotation t, int shift) {
+        if (t != null) {
+            t.start += shift;
+            t.end += shift;
+            t.maxEnd += shift;
+            t.lazy += shift;
+        }
+    }
+
+    private static void push(Annotation t) {
+        if (t.lazy != 0) {
+            apply(t.left, t.lazy);
+            apply(t.right, t.lazy);
+            t.lazy = 0;
+        }
+    }
+
+    private static void pull(Annotation t) {
+        int max = t.end;
+        if (t.left != null && t.left.maxEnd > max) {
+            max = t.left.maxEnd;
+        }
+        if (t.right != null && t.right.maxEnd > max) {
+            max = t.right.maxEnd;
+        }
+        t.maxEnd = max;
+    }
+
+    private static int getStart(Annotation t) {
+        while (t.left != null) {
+            push(t);
+            t = t.left;
+        }
+        return t.start;
+    }
+
+    @Override
+    public String toString() {
+        return "AnnotationLayer(" + name + ", " + size + " annotations)";
+    }
+}
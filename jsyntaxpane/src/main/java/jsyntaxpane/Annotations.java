@@ -0,0 +1,217 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeSupport;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import javax.swing.SwingUtilities;
+import javax.swing.text.JTextComponent;
+
+/**
+ * The annotation layers of a {@link SyntaxDocument}, which its views paint
+ * below the text of the visible lines.  Layers are created when first asked
+ * for, and painted in that order.
+ *
+ * A layer either belongs to the document, and is painted by all the
+ * components showing it, or to one component, like the markers that follow
+ * its caret, and is only painted by that component.  So two panes sharing a
+ * document each show their own markers.
+ *
+ * When annotations are added or removed, the views are told once for all
+ * changes made in the same event, with the
+ * <code>SyntaxDocument.ANNOTATIONS</code> property.
+ *
+ * @author Ayman Al-Sairafi
+ */
+public final class Annotations {
+
+    /**
+     * The layer of the pair of the token at the caret, of each component
+     */
+    public static final String PAIRS = "Pairs";
+    /**
+     * The layer of the occurrences of the token at the caret, of each
+     * component
+     */
+    public static final String TOKEN_MARKER = "TokenMarker";
+    /**
+     * The layer of search matches, of each component
+     */
+    public static final String SEARCH = "Search";
+    /**
+     * The layer of errors and warnings
+     */
+    public static final String DIAGNOSTICS = "Diagnostics";
+    private final SyntaxDocument doc;
+    private final PropertyChangeSupport propSupport;
+    private final Map<String, AnnotationLayer> layers = new LinkedHashMap<String, AnnotationLayer>();
+    // the layers of each component, by name
+    private final Map<JTextComponent, Map<String, AnnotationLayer>> componentLayers =
+            new WeakHashMap<JTextComponent, Map<String, AnnotationLayer>>();
+    // the range changed since the views were last told, empty if start > end
+    private int damageStart = Integer.MAX_VALUE;
+    private int damageEnd = Integer.MIN_VALUE;
+    private final Runnable fireDamage = new Runnable() {
+
+        @Override
+        public void run() {
+            propSupport.firePropertyChange(new PropertyChangeEvent(doc, SyntaxDocument.ANNOTATIONS,
+                    null, Annotations.this));
+            damageStart = Integer.MAX_VALUE;
+            damageEnd = Integer.MIN_VALUE;
+        }
+    };
+
+    Annotations(SyntaxDocument doc, PropertyChangeSupport propSupport) {
+        this.doc = doc;
+        this.propSupport = propSupport;
+    }
+
+    /**
+     * Returns the layer with the given name, creating it if needed
+     */
+    public AnnotationLayer getLayer(String name) {
+        AnnotationLayer layer = layers.get(name);
+        if (layer == null) {
+            layer = new AnnotationLayer(name, this);
+            layers.put(name, layer);
+        }
+        return layer;
+    }
+
+    /**
+     * Returns the layer of the given component with the given name, creating
+     * it if needed.  It is only painted by that component.
+     */
+    public AnnotationLayer getLayer(String name, JTextComponent component) {
+        Map<String, AnnotationLayer> named = componentLayers.get(component);
+        if (named == null) {
+            named = new LinkedHashMap<String, AnnotationLayer>();
+            componentLayers.put(component, named);
+        }
+        AnnotationLayer layer = named.get(name);
+        if (layer == null) {
+            layer = new AnnotationLayer(name, this);
+            named.put(name, layer);
+        }
+        return layer;
+    }
+
+    /**
+     * Returns the layers of the document, in the order they are painted
+     */
+    public Collection<AnnotationLayer> getLayers() {
+        return layers.values();
+    }
+
+    /**
+     * Returns the layers painted by the given component: those of the
+     * document, then its own, in the order they are painted
+     */
+    public Collection<AnnotationLayer> getLayers(JTextComponent component) {
+        Map<String, AnnotationLayer> named = componentLayers.get(component);
+        if (named == null) {
+            return layers.values();
+        }
+        List<AnnotationLayer> painted = new ArrayList<AnnotationLayer>(layers.values());
+        painted.addAll(named.values());
+        return painted;
+    }
+
+    /**
+     * Returns true if no layer has any annotation
+     */
+    public boolean isEmpty() {
+        for (AnnotationLayer layer : layers.values()) {
+            if (!layer.isEmpty()) {
+                return false;
+            }
+        }
+        for (Map<String, AnnotationLayer> named : componentLayers.values()) {
+            for (AnnotationLayer layer : named.values()) {
+                if (!layer.isEmpty()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the start of the range whose annotations changed, while the
+     * <code>SyntaxDocument.ANNOTATIONS</code> property is fired
+     */
+    public int getDamageStart() {
+        return damageStart;
+    }
+
+    /**
+     * Returns the end of the range whose annotations changed, while the
+     * <code>SyntaxDocument.ANNOTATIONS</code> property is fired
+     */
+    public int getDamageEnd() {
+        return damageEnd;
+    }
+
+    /**
+     * Moves the annotations of all layers after an insert
+     */
+    void insertUpdate(int offset, int length) {
+        for (AnnotationLayer layer : layers.values()) {
+            layer.insertUpdate(offset, length);
+        }
+        for (Map<String, AnnotationLayer> named : componentLayers.values()) {
+            for (AnnotationLayer layer : named.values()) {
+                layer.insertUpdate(offset, length);
+            }
+        }
+    }
+
+    /**
+     * Moves the annotations of all layers after a removal
+     */
+    void removeUpdate(int offset, int length) {
+        for (AnnotationLayer layer : layers.values()) {
+            layer.removeUpdate(offset, length);
+        }
+        for (Map<String, AnnotationLayer> named : componentLayers.values()) {
+            for (AnnotationLayer layer : named.values()) {
+                layer.removeUpdate(offset, length);
+            }
+        }
+    }
+
+    /**
+     * Adds a changed range, and tells the views once the current event is
+     * done
+     */
+    void damage(int start, int end) {
+        if (damageStart > damageEnd) {
+            SwingUtilities.invokeLater(fireDamage);
+        }
+        damageStart = Math.min(damageStart, start);
+        damageEnd = Math.max(damageEnd, end);
+    }
+
+    @Override
+    public String toString() {
+        return "Annotations" + layers.values();
+    }
+}
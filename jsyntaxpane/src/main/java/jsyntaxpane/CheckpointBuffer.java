@@ -0,0 +1,154 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.util.Arrays;
+
+/**
+ * The RestartableLexer states a SyntaxDocument saved at token boundaries.
+ * There is at most one of these per line, at the first boundary in the line.
+ * The lexer may have looked past the boundary to decide where the
+ * previous token ends, so each checkpoint also remembers how far the text
+ * had been read.  It is only valid while that text is unchanged.  A
+ * checkpoint is only reached through the ones before it, so its lookahead
+ * is at least theirs, and the lookaheads never decrease.
+ *
+ * Like the tokens, the checkpoints are kept in columns with a gap at the
+ * last edit, see {@link GapBuffer}.
+ *
+ * @author Ayman Al-Sairafi
+ */
+final class CheckpointBuffer extends GapBuffer {
+
+    private int[] offsets;
+    private int[] lookaheads;
+    private LexerState[] states;
+
+    CheckpointBuffer(int capacity) {
+        super(Math.max(capacity, 4));
+        capacity = gapLength;
+        offsets = new int[capacity];
+        lookaheads = new int[capacity];
+        states = new LexerState[capacity];
+    }
+
+    /**
+     * Appends a checkpoint
+     */
+    void add(int offset, int lookahead, LexerState state) {
+        int i = append();
+        offsets[i] = offset;
+        lookaheads[i] = lookahead;
+        states[i] = state;
+    }
+
+    int getOffset(int i) {
+        return offsets[index(i)] + delta(i);
+    }
+
+    int getLookahead(int i) {
+        return lookaheads[index(i)] + delta(i);
+    }
+
+    LexerState getState(int i) {
+        return states[index(i)];
+    }
+
+    /**
+     * Returns the index of the last checkpoint that does not depend on any
+     * text at or after pos, or -1 if lexing has to start at the top of the
+     * document.
+     */
+    int indexAt(int pos) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getLookahead(mid) <= pos) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - 1;
+    }
+
+    /**
+     * Raises the lookaheads of the checkpoints from index from to at least
+     * lookahead, up to the first one that already is, so that they keep
+     * increasing after the ones before from were replaced
+     */
+    void raiseLookaheads(int from, int lookahead) {
+        for (int i = from; i < size && getLookahead(i) < lookahead; i++) {
+            lookaheads[index(i)] = lookahead - delta(i);
+        }
+    }
+
+    /**
+     * Returns a copy of this buffer, that can be changed independently
+     */
+    CheckpointBuffer copy() {
+        CheckpointBuffer copy = new CheckpointBuffer(size);
+        for (int i = 0; i < size; i++) {
+            copy.copyFrom(i, this, i);
+        }
+        copy.size = size;
+        copy.gapStart = size;
+        copy.gapLength -= size;
+        return copy;
+    }
+
+    @Override
+    void resize(int capacity) {
+        offsets = Arrays.copyOf(offsets, capacity);
+        lookaheads = Arrays.copyOf(lookaheads, capacity);
+        states = Arrays.copyOf(states, capacity);
+    }
+
+    @Override
+    void move(int from, int to, int n) {
+        System.arraycopy(offsets, from, offsets, to, n);
+        System.arraycopy(lookaheads, from, lookaheads, to, n);
+        System.arraycopy(states, from, states, to, n);
+        if (to > from) {
+            // drop references to states left in the gap
+            Arrays.fill(states, from, Math.min(from + n, to), null);
+        } else {
+            Arrays.fill(states, Math.max(to + n, from), from + n, null);
+        }
+    }
+
+    @Override
+    void shift(int i, int n, int shift) {
+        for (int end = i + n; i < end; i++) {
+            offsets[i] += shift;
+            lookaheads[i] += shift;
+        }
+    }
+
+    @Override
+    void copyFrom(int i, GapBuffer source, int index) {
+        CheckpointBuffer checkpoints = (CheckpointBuffer) source;
+        int ndx = checkpoints.index(index);
+        int shift = checkpoints.delta(index);
+        offsets[i] = checkpoints.offsets[ndx] + shift;
+        lookaheads[i] = checkpoints.lookaheads[ndx] + shift;
+        states[i] = checkpoints.states[ndx];
+    }
+
+    @Override
+    public String toString() {
+        return "CheckpointBuffer(" + size + " checkpoints)";
+    }
+}
@@ -43,6 +43,8 @@ public class CompoundUndoManager extends UndoManager {
 	// This holds the start of the last line edited, if edits are on multiple
 	// lines, then they will not be combined.
 	private int	lastLine = -1;
+	// This holds all the edits of a batch of changes, while one is made
+	private MyCompoundEdit batchEdit;
 
 	public CompoundUndoManager(SyntaxDocument doc) {
         this.doc = doc;
@@ -56,6 +58,12 @@ public class CompoundUndoManager extends UndoManager {
 	 */
 	@Override
 	public void undoableEditHappened(UndoableEditEvent e) {
+		//  A batch is undone as a single edit
+		if (batchEdit != null) {
+			batchEdit.addEdit(e.getEdit());
+			return;
+		}
+
 		//  Start a new compound edit
 
 		if (compoundEdit == null) {
@@ -180,6 +188,37 @@ public class CompoundUndoManager extends UndoManager {
 
 			compoundEdit = null;
 		}
+
+		boolean isEmpty() {
+			return edits.isEmpty();
+		}
+	}
+
+	/**
+	 * Starts to put all edits in one compound edit, until endBatch is called
+	 */
+	void beginBatch() {
+		batchEdit = new MyCompoundEdit();
+	}
+
+	/**
+	 * Adds the edits made since beginBatch as a single edit
+	 */
+	void endBatch() {
+		MyCompoundEdit edit = batchEdit;
+		batchEdit = null;
+		edit.end();
+		if (edit.isEmpty()) {
+			return;
+		}
+		//  The next edit is not combined with the batch
+		if (compoundEdit != null) {
+			compoundEdit.end();
+		}
+		compoundEdit = null;
+		startCombine = false;
+		addEdit(edit);
+		updateDirty();
 	}
 
 	/**
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.util.Arrays;
+
+/**
+ * The parts of a document changed by a series of edits, like the edits of
+ * a bulk edit, kept as disjoint ranges in document order.  The ranges are
+ * given in the coordinates after the edits.
+ *
+ * An edit that touches some ranges is merged with them, and shifts the
+ * ranges after it.  Like the tokens, the ranges are kept in columns with a
+ * gap at the last edit, see {@link GapBuffer}, so a series of edits made
+ * from the end of a document to its start costs constant time per edit.
+ *
+ * @author Ayman Al-Sairafi
+ */
+final class DamageBuffer extends GapBuffer {
+
+    private int[] starts;
+    private int[] ends;
+    // holds the merged range of an edit
+    private DamageBuffer merged;
+
+    DamageBuffer(int capacity) {
+        super(Math.max(capacity, 4));
+        capacity = gapLength;
+        starts = new int[capacity];
+        ends = new int[capacity];
+    }
+
+    /**
+     * Adds the edit replacing [offset, oldEnd) with [offset, newEnd), given in
+     * the coordinates after the edits added before it
+     */
+    void add(int offset, int oldEnd, int newEnd) {
+        int shift = newEnd - oldEnd;
+        // the ranges in [first, last) touch the edit
+        int first = indexAfter(offset);
+        int last = first;
+        while (last < size && getStart(last) <= oldEnd) {
+            last++;
+        }
+        int start = offset;
+        int end = newEnd;
+        if (first < last) {
+            start = Math.min(start, getStart(first));
+            int lastEnd = getEnd(last - 1);
+            if (lastEnd > oldEnd) {
+                end = lastEnd + shift;
+            }
+        }
+        if (merged == null) {
+            merged = new DamageBuffer(1);
+        }
+        merged.size = 0;
+        merged.gapStart = 0;
+        merged.gapLength = merged.starts.length;
+        merged.delta = 0;
+        int i = merged.append();
+        merged.starts[i] = start;
+        merged.ends[i] = end;
+        splice(first, last, merged, 0, 1, shift);
+    }
+
+    int getStart(int i) {
+        return starts[index(i)] + delta(i);
+    }
+
+    int getEnd(int i) {
+        return ends[index(i)] + delta(i);
+    }
+
+    /*
+     * Returns the index of the first range that ends at or after pos
+     */
+    private int indexAfter(int pos) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getEnd(mid) < pos) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    @Override
+    void resize(int capacity) {
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+    }
+
+    @Override
+    void move(int from, int to, int n) {
+        System.arraycopy(starts, from, starts, to, n);
+        System.arraycopy(ends, from, ends, to, n);
+    }
+
+    @Override
+    void shift(int i, int n, int shift) {
+        for (int end = i + n; i < end; i++) {
+            starts[i] += shift;
+            ends[i] += shift;
+        }
+    }
+
+    @Override
+    void copyFrom(int i, GapBuffer source, int index) {
+        DamageBuffer damage = (DamageBuffer) source;
+        int ndx = damage.index(index);
+        starts[i] = damage.starts[ndx] + damage.delta(index);
+        ends[i] = damage.ends[ndx] + damage.delta(index);
+    }
+}
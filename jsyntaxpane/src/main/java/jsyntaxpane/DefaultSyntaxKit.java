@@ -20,9 +20,11 @@ import java.awt.Font;
 import java.awt.GraphicsEnvironment;
 import java.awt.Toolkit;
 import java.awt.event.KeyEvent;
+import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -84,6 +86,10 @@ public class DefaultSyntaxKit extends DefaultEditorKit implements ViewFactory {
 	public static final String CONFIG_TOOLBAR_BORDER = "Toolbar.Buttons.BorderPainted";
 	public static final String CONFIG_TOOLBAR_OPAQUE = "Toolbar.Buttons.Opaque";
 	public static final String CONFIG_TOOLBAR_BORDER_SIZE = "Toolbar.Buttons.BorderSize";
+	public static final String CONFIG_INCREMENTAL_PARSING = "IncrementalParsing";
+	public static final String CONFIG_ASYNCHRONOUS_PARSING = "AsynchronousParsing";
+	public static final String CONFIG_PROGRESSIVE_PARSING = "ProgressiveParsing";
+	public static final String CONFIG_SEARCH_INDEX_LIMIT = "SearchIndexLimit";
 	private static final Pattern ACTION_KEY_PATTERN = Pattern.compile("Action\\.((\\w|-)+)");
 	private static final Pattern DEFAULT_ACTION_PATTERN = Pattern.compile("(DefaultAction.((\\w|-)+)).*");
 	private static Font DEFAULT_FONT;
@@ -219,11 +225,55 @@ public class DefaultSyntaxKit extends DefaultEditorKit implements ViewFactory {
 		return true;
 	}
 
+    /**
+     * Reads the whole text, converting line separators to newlines like
+     * DefaultEditorKit does, and inserts it at once.  Into a SyntaxDocument,
+     * the text is inserted with {@link SyntaxDocument#insertBulk}, so it is
+     * lexed once, and cannot be undone if the document was empty.
+     */
     @Override
     public void read(Reader in, Document doc, int pos)
             throws IOException, BadLocationException {
-        super.read(in, doc, pos);
-        // ((SyntaxDocument) doc).clearUndos();
+        if (pos < 0 || pos > doc.getLength()) {
+            throw new BadLocationException("Invalid position", pos);
+        }
+        StringBuilder text = new StringBuilder();
+        String separator = null;
+        char[] buff = new char[8192];
+        boolean lastWasCR = false;
+        int n;
+        while ((n = in.read(buff)) != -1) {
+            for (int i = 0; i < n; i++) {
+                char c = buff[i];
+                if (lastWasCR) {
+                    lastWasCR = false;
+                    if (c == '\n') {
+                        if (separator == null) {
+                            separator = "\r\n";
+                        }
+                        continue;
+                    }
+                }
+                if (c == '\r') {
+                    lastWasCR = true;
+                    if (separator == null) {
+                        separator = "\r";
+                    }
+                    c = '\n';
+                } else if (c == '\n' && separator == null) {
+                    separator = "\n";
+                }
+                text.append(c);
+            }
+        }
+        if (separator != null) {
+            doc.putProperty(DefaultEditorKit.EndOfLineStringProperty, separator);
+        }
+        if (doc instanceof SyntaxDocument) {
+            ((SyntaxDocument) doc).insertBulk(pos, text.toString(), false);
+        } else {
+            doc.insertString(pos, text.toString(), null);
+        }
     }
 
         /**
@@ -491,7 +541,28 @@ public class DefaultSyntaxKit extends DefaultEditorKit implements ViewFactory {
 	 */
 	@Override
 	public Document createDefaultDocument() {
-		return new SyntaxDocument(lexer, mimeType);
+		SyntaxDocument doc = new SyntaxDocument(lexer, mimeType);
+		// other lexers are only relexed in part when asked for, as they
+		// may not restart at the tokens they returned
+		doc.setIncrementalParsing(getConfig().getBoolean(CONFIG_INCREMENTAL_PARSING,
+			lexer instanceof RestartableLexer));
+		doc.setAsynchronousParsing(getConfig().getBoolean(CONFIG_ASYNCHRONOUS_PARSING, false));
+		doc.setProgressiveParsing(getConfig().getBoolean(CONFIG_PROGRESSIVE_PARSING, false));
+		doc.setSearchIndexLimit(getConfig().getInteger(CONFIG_SEARCH_INDEX_LIMIT, 0));
+		return doc;
+	}
+
+	/**
+	 * Creates a read only document for viewing a large file.  The file is
+	 * memory mapped, and only the parts that are shown are decoded and lexed.
+	 * Use it with <code>JEditorPane.setDocument</code> after setting this kit.
+	 *
+	 * @see MappedContent
+	 */
+	public SyntaxDocument createReadOnlyDocument(File file, Charset charset) throws IOException {
+		SyntaxDocument doc = new SyntaxDocument(lexer, mimeType, new MappedContent(file, charset));
+		doc.setSearchIndexLimit(getConfig().getInteger(CONFIG_SEARCH_INDEX_LIMIT, 0));
+		return doc;
 	}
 
 	/**
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+/**
+ * Base of the column buffers that hold document offsets, like the tokens
+ * of a SyntaxDocument.  The elements are kept in arrays with a gap where
+ * the last change was made.  Offsets of the elements after the gap are
+ * stored without the shift of the edits made before them: that shift is
+ * kept once, in {@link #delta}.  So replacing the elements at an edit and
+ * shifting all of the following ones by the edit length does not touch
+ * the following elements at all.
+ *
+ * Moving the gap to another position moves, and shifts, only the elements
+ * in between, so a series of edits in one region of a document costs the
+ * same wherever that region is.
+ *
+ * Subclasses keep the columns, and index them with {@link #index(int)}.
+ *
+ * @author Ayman Al-Sairafi
+ */
+abstract class GapBuffer {
+
+    /**
+     * Number of elements
+     */
+    int size;
+    /**
+     * Number of elements before the gap, which is the array index where
+     * the gap starts
+     */
+    int gapStart;
+    int gapLength;
+    /**
+     * Shift to add to the stored offsets of the elements after the gap
+     */
+    int delta;
+
+    GapBuffer(int capacity) {
+        gapLength = capacity;
+    }
+
+    /**
+     * Returns the number of elements
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the array index of element i
+     */
+    final int index(int i) {
+        return i < gapStart ? i : i + gapLength;
+    }
+
+    /**
+     * Returns the shift to add to the stored offsets of element i
+     */
+    final int delta(int i) {
+        return i < gapStart ? 0 : delta;
+    }
+
+    /**
+     * Returns the array index for a new last element.  The element is
+     * counted, and stored before the gap, so its offsets are stored as is.
+     */
+    final int append() {
+        moveGap(size);
+        if (gapLength == 0) {
+            grow(size + 1);
+        }
+        gapStart++;
+        gapLength--;
+        return size++;
+    }
+
+    /**
+     * Replaces the elements in [from, to) with the elements in [rFrom, rTo)
+     * of the given buffer, and shifts the elements after them by shift.
+     */
+    void splice(int from, int to, GapBuffer replacement, int rFrom, int rTo, int shift) {
+        moveGap(to);
+        // the removed elements now end at the gap
+        gapStart = from;
+        gapLength += to - from;
+        size -= to - from;
+        int count = rTo - rFrom;
+        if (gapLength < count) {
+            grow(size + count);
+        }
+        for (int i = 0; i < count; i++) {
+            copyFrom(gapStart + i, replacement, rFrom + i);
+        }
+        gapStart += count;
+        gapLength -= count;
+        size += count;
+        if (gapStart == size) {
+            delta = 0;
+        } else {
+            delta += shift;
+        }
+    }
+
+    /**
+     * Moves the gap so that it starts before element i
+     */
+    final void moveGap(int i) {
+        if (i < gapStart) {
+            // elements [i, gapStart) go after the gap
+            int n = gapStart - i;
+            move(i, i + gapLength, n);
+            if (delta != 0) {
+                shift(i + gapLength, n, -delta);
+            }
+        } else if (i > gapStart) {
+            // elements [gapStart, i) go before the gap
+            int n = i - gapStart;
+            move(gapStart + gapLength, gapStart, n);
+            if (delta != 0) {
+                shift(gapStart, n, delta);
+            }
+        }
+        gapStart = i;
+        if (gapStart == size) {
+            delta = 0;
+        }
+    }
+
+    /*
+     * Makes room for at least capacity elements, keeping the gap where it is
+     */
+    private void grow(int capacity) {
+        int length = size + gapLength;
+        int newLength = Math.max(capacity, length + (length >> 1) + 4);
+        int tail = size - gapStart;
+        resize(newLength);
+        move(gapStart + gapLength, newLength - tail, tail);
+        gapLength = newLength - size;
+    }
+
+    /**
+     * Changes the length of all columns to capacity, keeping the elements
+     * at their array indexes
+     */
+    abstract void resize(int capacity);
+
+    /**
+     * Copies n elements in all columns from array index from to array index
+     * to, like System.arraycopy.
+     */
+    abstract void move(int from, int to, int n);
+
+    /**
+     * Adds shift to the stored offsets of the n elements from array index i
+     */
+    abstract void shift(int i, int n, int shift);
+
+    /**
+     * Stores element index of source, with its offsets as they are in the
+     * document, at array index i
+     */
+    abstract void copyFrom(int i, GapBuffer source, int index);
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+/**
+ * The state of a {@link RestartableLexer} at a token boundary.  This is
+ * everything the lexer needs to carry on from that boundary as if it had
+ * lexed all the text before it.
+ *
+ * LexerStates are immutable and compare by value, so that two lexing runs
+ * that reach the same position in the same state can be detected.
+ *
+ * @author Ayman Al-Sairafi
+ */
+public final class LexerState {
+
+    /**
+     * The state of a lexer in its initial lexical state, without any
+     * pending token or user state
+     */
+    public static final LexerState INITIAL = new LexerState(0, 0, 0, null);
+
+    /**
+     * The lexical state (the JFlex <code>yystate()</code>)
+     */
+    public final int lexicalState;
+    /**
+     * Start of a token that was started but not yet returned, relative to
+     * the boundary the state was saved at.  This is usually negative.
+     */
+    public final int tokenStart;
+    /**
+     * Length so far of a token that was started but not yet returned
+     */
+    public final int tokenLength;
+    /**
+     * Any other lexer specific data, like nesting depths.  This must be
+     * immutable and implement equals.  May be null.
+     */
+    public final Object userState;
+
+    public LexerState(int lexicalState, int tokenStart, int tokenLength, Object userState) {
+        this.lexicalState = lexicalState;
+        this.tokenStart = tokenStart;
+        this.tokenLength = tokenLength;
+        this.userState = userState;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof LexerState) {
+            LexerState state = (LexerState) obj;
+            return (this.lexicalState == state.lexicalState) &&
+                    (this.tokenStart == state.tokenStart) &&
+                    (this.tokenLength == state.tokenLength) &&
+                    (this.userState == null ? state.userState == null
+                    : this.userState.equals(state.userState));
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return lexicalState * 31 + tokenStart;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LexerState(%d, %d, %d, %s)", lexicalState,
+                tokenStart, tokenLength, userState);
+    }
+}
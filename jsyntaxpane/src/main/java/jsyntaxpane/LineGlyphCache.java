@@ -0,0 +1,293 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.text.Bidi;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Segment;
+import javax.swing.text.TabExpander;
+
+/**
+ * The shaped glyphs of the lines a {@link SyntaxView} painted last.  A line
+ * is looked up by what it looks like: its text, its tokens, the font and
+ * render context and where it starts.  So scrolling, or repainting a line
+ * that was not changed, draws the cached glyphs without measuring or laying
+ * out any text, and a line is drawn again from its text only when its text
+ * or tokens change.  The least recently painted lines are dropped once the
+ * cache is full.
+ *
+ * Lines are drawn like {@link SyntaxStyle#drawText}, tab stops included.
+ * Lines with right to left text are not cached.
+ *
+ * @author Ayman Al-Sairafi
+ */
+final class LineGlyphCache {
+
+    private static final TokenType[] TYPES = TokenType.values();
+    private final Map<Line, Line> lines;
+    // the line being painted, used to look up the cached one
+    private final Line probe = new Line();
+    private final Segment segment = new Segment();
+
+    LineGlyphCache(final int capacity) {
+        lines = new LinkedHashMap<Line, Line>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Line, Line> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Draws the whole line [p0, p1) of the document at x, y, and returns the
+     * x after it, or -1 if the line cannot be cached and has to be drawn
+     * the usual way.
+     */
+    int drawLine(Graphics2D graphics, int x, int y, SyntaxDocument doc, int p0, int p1,
+            SyntaxStyles styles, SyntaxStyle defaultStyle, TabExpander e) throws BadLocationException {
+        doc.getText(p0, p1 - p0, segment);
+        if (Bidi.requiresBidi(segment.array, segment.offset, segment.offset + segment.count)) {
+            return -1;
+        }
+        probe.set(x, graphics.getFont(), graphics.getFontRenderContext(), segment, doc.getTokens(p0, p1), p0, p1);
+        Line line = lines.get(probe);
+        if (line == null) {
+            line = probe.copy();
+            line.layout(graphics, x, doc, p0, styles, defaultStyle, e);
+            lines.put(line, line);
+        }
+        line.draw(graphics, y);
+        return line.end;
+    }
+
+    /**
+     * Drops all the cached lines
+     */
+    void clear() {
+        lines.clear();
+    }
+
+    /*
+     * A painted line.  The key is the text of the line with its tokens, as
+     * (start in the line, length, type) triples clipped to the line, and what
+     * the drawing depends on.  The glyphs are kept as runs of one style.
+     */
+    private static final class Line {
+
+        private int x;
+        private Font font;
+        private FontRenderContext frc;
+        private char[] text = new char[0];
+        // start and length of the line in the text array
+        private int offset;
+        private int length;
+        private int[] tokens = new int[0];
+        private int count;
+        private int hash;
+        // the runs of glyphs, and the x after the line
+        private Run[] runs;
+        private int end;
+
+        void set(int x, Font font, FontRenderContext frc, Segment s, Iterator<Token> i, int p0, int p1) {
+            this.x = x;
+            this.font = font;
+            this.frc = frc;
+            text = s.array;
+            length = s.count;
+            int h = x;
+            for (int k = 0; k < length; k++) {
+                h = 31 * h + text[s.offset + k];
+            }
+            hash = h;
+            offset = s.offset;
+            count = 0;
+            while (i.hasNext()) {
+                Token t = i.next();
+                int start = Math.max(t.start, p0);
+                int end = Math.min(t.end(), p1);
+                if (3 * count + 3 > tokens.length) {
+                    tokens = Arrays.copyOf(tokens, 2 * tokens.length + 12);
+                }
+                tokens[3 * count] = start - p0;
+                tokens[3 * count + 1] = end - start;
+                tokens[3 * count + 2] = t.type.ordinal();
+                hash = 31 * hash + ((start - p0) ^ (end - start) << 12 ^ t.type.ordinal() << 24);
+                count++;
+            }
+        }
+
+        Line copy() {
+            Line copy = new Line();
+            copy.x = x;
+            copy.font = font;
+            copy.frc = frc;
+            copy.text = Arrays.copyOfRange(text, offset, offset + length);
+            copy.length = length;
+            copy.tokens = Arrays.copyOf(tokens, 3 * count);
+            copy.count = count;
+            copy.hash = hash;
+            return copy;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Line)) {
+                return false;
+            }
+            Line other = (Line) obj;
+            if (other.hash != hash || other.x != x || other.length != length || other.count != count
+                    || !other.font.equals(font) || !other.frc.equals(frc)) {
+                return false;
+            }
+            for (int k = 0; k < length; k++) {
+                if (other.text[other.offset + k] != text[offset + k]) {
+                    return false;
+                }
+            }
+            for (int k = 0; k < 3 * count; k++) {
+                if (other.tokens[k] != tokens[k]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /*
+         * Shapes the text of the line, the way SyntaxView draws it
+         */
+        void layout(Graphics2D graphics, int x, SyntaxDocument doc, int p0, SyntaxStyles styles,
+                SyntaxStyle defaultStyle, TabExpander e) {
+            Font saveFont = graphics.getFont();
+            try {
+                Run[] built = new Run[2 * count + 1];
+                int n = 0;
+                int start = 0;
+                for (int k = 0; k < count; k++) {
+                    int s = tokens[3 * k];
+                    int l = tokens[3 * k + 1];
+                    if (start < s) {
+                        built[n++] = new Run(graphics, defaultStyle, text, start, s, x, p0, e);
+                        x = built[n - 1].end;
+                    }
+                    built[n++] = new Run(graphics, styles.getStyle(TYPES[tokens[3 * k + 2]]), text, s, s + l,
+                            x, p0, e);
+                    x = built[n - 1].end;
+                    start = s + l;
+                }
+                if (start < length) {
+                    built[n++] = new Run(graphics, defaultStyle, text, start, length, x, p0, e);
+                    x = built[n - 1].end;
+                }
+                runs = Arrays.copyOf(built, n);
+                end = x;
+            } finally {
+                graphics.setFont(saveFont);
+            }
+        }
+
+        void draw(Graphics2D graphics, int y) {
+            for (Run run : runs) {
+                run.draw(graphics, y);
+            }
+        }
+    }
+
+    /*
+     * The glyphs of text drawn with one style, split at tabs and line ends
+     * like Utilities.drawTabbedText does
+     */
+    private static final class Run {
+
+        private final Color color;
+        private final int decorations;
+        private final int x;
+        private final int width;
+        private final int ascent;
+        private final int height;
+        private final GlyphVector[] glyphs;
+        private final int[] xs;
+        final int end;
+
+        Run(Graphics2D graphics, SyntaxStyle style, char[] text, int start, int limit, int x, int p0,
+                TabExpander e) {
+            Font font = style.getFont(graphics);
+            FontMetrics metrics = style.getFontMetrics(graphics);
+            FontRenderContext frc = graphics.getFontRenderContext();
+            color = style.getColor();
+            decorations = style.getFontStyle() & 0x18;
+            this.x = x;
+            ascent = metrics.getAscent();
+            height = ascent + metrics.getDescent();
+            GlyphVector[] gvs = new GlyphVector[4];
+            int[] pos = new int[4];
+            int n = 0;
+            int flush = start;
+            for (int i = start; i <= limit; i++) {
+                char c = i < limit ? text[i] : '\n';
+                if (c != '\t' && c != '\n' && c != '\r') {
+                    continue;
+                }
+                if (i > flush) {
+                    if (n == gvs.length) {
+                        gvs = Arrays.copyOf(gvs, 2 * n);
+                        pos = Arrays.copyOf(pos, 2 * n);
+                    }
+                    gvs[n] = font.layoutGlyphVector(frc, text, flush, i, Font.LAYOUT_LEFT_TO_RIGHT);
+                    pos[n] = x;
+                    n++;
+                    x += metrics.charsWidth(text, flush, i - flush);
+                }
+                flush = i + 1;
+                if (c == '\t' && i < limit) {
+                    x = e != null ? (int) e.nextTabStop(x, p0 + i) : x + metrics.charWidth(' ');
+                }
+            }
+            glyphs = Arrays.copyOf(gvs, n);
+            xs = Arrays.copyOf(pos, n);
+            width = x - this.x;
+            end = x;
+        }
+
+        void draw(Graphics2D graphics, int y) {
+            if ((decorations & 0x10) != 0) {
+                graphics.setColor(SyntaxStyle.BACKGROUND);
+                graphics.fillRect(x - 1, y - ascent, width + 2, height);
+            }
+            graphics.setColor(color);
+            for (int k = 0; k < glyphs.length; k++) {
+                graphics.drawGlyphVector(glyphs[k], xs[k], y);
+            }
+            if ((decorations & 0x8) != 0) {
+                graphics.setColor(Color.RED);
+                graphics.drawRect(x - 1, y - ascent, width + 2, height);
+            }
+        }
+    }
+}
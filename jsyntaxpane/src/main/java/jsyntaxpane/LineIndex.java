@@ -0,0 +1,39 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+/**
+ * The start offsets of the lines of a document.  Lines end with a newline,
+ * except for the last one, so a document always has at least one line.
+ *
+ * @author Ayman Al-Sairafi
+ */
+interface LineIndex {
+
+    /**
+     * Returns the number of lines
+     */
+    int getLineCount();
+
+    /**
+     * Returns the offset of the first char of the given line
+     */
+    int getLineStart(int line);
+
+    /**
+     * Returns the line containing the given offset.  Offsets past the end of
+     * the document are in the last line.
+     */
+    int getLineAt(int offset);
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.SimpleAttributeSet;
+
+/**
+ * The root element of a document that only models lines, as a view of a
+ * {@link LineIndex}.  The line elements are created when asked for, so
+ * there are no objects kept for the lines nobody holds on to.  An element
+ * reads its offsets from the line index, and keeps its line while the
+ * lines before it are added or removed, so, like the elements of a
+ * PlainDocument, the same element is returned for a line as long as someone
+ * holds on to it.  The views rely on that, for instance to find out that
+ * the longest line was removed.
+ *
+ * The elements of the last lines asked for are kept, so that painting the
+ * same lines again, as views do for every frame, does not create any
+ * elements.
+ *
+ * @author Ayman Al-Sairafi
+ */
+final class LineRootElement implements Element {
+
+    // number of kept elements, a power of two larger than a screen of lines
+    private static final int CACHE_SIZE = 256;
+    private final SyntaxDocument doc;
+    private final LineIndex lines;
+    // kept elements, by line index modulo CACHE_SIZE
+    private final Line[] cache = new Line[CACHE_SIZE];
+    // the elements handed out, by line index, until nobody holds on to them
+    private final Map<Integer, LineRef> handedOut = new HashMap<Integer, LineRef>();
+    private final ReferenceQueue<Line> released = new ReferenceQueue<Line>();
+
+    LineRootElement(SyntaxDocument doc, LineIndex lines) {
+        this.doc = doc;
+        this.lines = lines;
+    }
+
+    @Override
+    public Document getDocument() {
+        return doc;
+    }
+
+    @Override
+    public Element getParentElement() {
+        return null;
+    }
+
+    @Override
+    public String getName() {
+        return AbstractDocument.ParagraphElementName;
+    }
+
+    @Override
+    public AttributeSet getAttributes() {
+        return SimpleAttributeSet.EMPTY;
+    }
+
+    @Override
+    public int getStartOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getEndOffset() {
+        return doc.getLength() + 1;
+    }
+
+    @Override
+    public int getElementIndex(int offset) {
+        return lines.getLineAt(Math.max(offset, 0));
+    }
+
+    @Override
+    public int getElementCount() {
+        return lines.getLineCount();
+    }
+
+    @Override
+    public Element getElement(int index) {
+        if (index < 0 || index >= lines.getLineCount()) {
+            return null;
+        }
+        Line line = cache[index & (CACHE_SIZE - 1)];
+        if (line == null || line.index != index) {
+            expungeReleased();
+            LineRef ref = handedOut.get(index);
+            line = ref == null ? null : ref.get();
+            if (line == null) {
+                line = new Line(index);
+                handedOut.put(index, new LineRef(line, released));
+            }
+            cache[index & (CACHE_SIZE - 1)] = line;
+        }
+        return line;
+    }
+
+    /**
+     * Creates the element of a removed line with the given offsets
+     */
+    Element createLine(int start, int end) {
+        Line line = new Line(-1);
+        line.remove(start, end);
+        return line;
+    }
+
+    /**
+     * Replaces lines [line, line + removed] with lines [line, line + added],
+     * before the line index is changed.  The elements handed out for the
+     * replaced lines are removed from the document, and the ones of the
+     * lines after them are moved to their new indexes.
+     *
+     * @param starts the starts of the replaced lines after line
+     * @param start the start of line
+     * @param end the end of the last replaced line
+     * @return the elements of the replaced lines that were handed out, by
+     * line from line, or null if there are none
+     */
+    Element[] replaceLines(int line, LineIndex starts, int start, int end, int added) {
+        expungeReleased();
+        int removed = starts.getLineCount();
+        Element[] replaced = null;
+        List<LineRef> moved = new ArrayList<LineRef>();
+        for (Iterator<LineRef> it = handedOut.values().iterator(); it.hasNext();) {
+            LineRef ref = it.next();
+            Line l = ref.get();
+            if (ref.index < line) {
+                continue;
+            }
+            it.remove();
+            if (l == null) {
+                continue;
+            }
+            if (ref.index > line + removed) {
+                ref.index += added - removed;
+                l.index = ref.index;
+                moved.add(ref);
+            } else {
+                int k = ref.index - line;
+                if (replaced == null) {
+                    replaced = new Element[removed + 1];
+                }
+                replaced[k] = l;
+                l.remove(k == 0 ? start : starts.getLineStart(k - 1),
+                        k < removed ? starts.getLineStart(k) : end);
+            }
+        }
+        for (LineRef ref : moved) {
+            handedOut.put(ref.index, ref);
+        }
+        return replaced;
+    }
+
+    /*
+     * Forgets the elements nobody holds on to anymore
+     */
+    private void expungeReleased() {
+        LineRef ref;
+        while ((ref = (LineRef) released.poll()) != null) {
+            if (handedOut.get(ref.index) == ref) {
+                handedOut.remove(ref.index);
+            }
+        }
+    }
+
+    @Override
+    public boolean isLeaf() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "LineRootElement(" + lines.getLineCount() + " lines)";
+    }
+
+    /*
+     * A handed out element, and the line it is kept for
+     */
+    private static final class LineRef extends WeakReference<Line> {
+
+        int index;
+
+        LineRef(Line line, ReferenceQueue<Line> queue) {
+            super(line, queue);
+            this.index = line.index;
+        }
+    }
+
+    private class Line implements Element {
+
+        // the index of the line, or -1 once the line was removed
+        int index;
+        // the offsets of the line when it was removed
+        private int start;
+        private int end;
+
+        Line(int index) {
+            this.index = index;
+        }
+
+        void remove(int start, int end) {
+            this.index = -1;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Document getDocument() {
+            return doc;
+        }
+
+        @Override
+        public Element getParentElement() {
+            return LineRootElement.this;
+        }
+
+        @Override
+        public String getName() {
+            return AbstractDocument.ContentElementName;
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return index < 0 ? start : lines.getLineStart(index);
+        }
+
+        @Override
+        public int getEndOffset() {
+            if (index < 0) {
+                return end;
+            }
+            return index + 1 < lines.getLineCount() ? lines.getLineStart(index + 1) : doc.getLength() + 1;
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            return -1;
+        }
+
+        @Override
+        public int getElementCount() {
+            return 0;
+        }
+
+        @Override
+        public Element getElement(int index) {
+            return null;
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "Line(" + getStartOffset() + ", " + getEndOffset() + ")";
+        }
+    }
+}
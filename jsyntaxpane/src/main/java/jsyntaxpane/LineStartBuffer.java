@@ -0,0 +1,280 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.util.Arrays;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.Element;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+
+/**
+ * The start offsets of the lines of an editable document, kept in a
+ * {@link GapBuffer} of ints.  Looking up a line or an offset is a binary
+ * search, and an edit only moves the gap and shifts the lines in between,
+ * so editing a million line document does not touch a million objects.
+ *
+ * The changes are returned as undoable edits, to be added to the
+ * DocumentEvent of the text change.  Edits that add or remove lines also
+ * tell the views which lines changed, like the ElementEdits of a
+ * PlainDocument do.
+ *
+ * @author Ayman Al-Sairafi
+ */
+final class LineStartBuffer extends GapBuffer implements LineIndex {
+
+    private int[] starts;
+
+    LineStartBuffer(int capacity) {
+        super(Math.max(capacity, 4));
+        starts = new int[gapLength];
+    }
+
+    /**
+     * Appends the start of a line
+     */
+    void add(int start) {
+        starts[append()] = start;
+    }
+
+    @Override
+    public int getLineCount() {
+        return size;
+    }
+
+    @Override
+    public int getLineStart(int line) {
+        return starts[index(line)] + delta(line);
+    }
+
+    @Override
+    public int getLineAt(int offset) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getLineStart(mid) <= offset) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return Math.max(lo - 1, 0);
+    }
+
+    /**
+     * Updates the lines for text inserted at offset.  The text is
+     * text[from, to), which is where a Segment of it would point.
+     *
+     * @param end the length of the document after the insert
+     */
+    Edit insert(LineRootElement root, int offset, char[] text, int from, int to, int end) {
+        int length = to - from;
+        // scan for newlines with a plain loop over the array, twice to size the buffer
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            if (text[i] == '\n') {
+                n++;
+            }
+        }
+        LineStartBuffer added = new LineStartBuffer(n);
+        if (n > 0) {
+            for (int i = from; i < to; i++) {
+                if (text[i] == '\n') {
+                    added.add(offset + (i - from) + 1);
+                }
+            }
+        }
+        int line = getLineAt(offset);
+        Edit edit = newEdit(root, line, end - length, new LineStartBuffer(0), added, length);
+        edit.apply();
+        return edit;
+    }
+
+    /**
+     * Updates the lines for the text in [offset, offset + length) being
+     * removed.  Must be called before the text is removed.
+     *
+     * @param end the length of the document before the removal
+     */
+    Edit remove(LineRootElement root, int offset, int length, int end) {
+        int line = getLineAt(offset);
+        int last = getLineAt(offset + length);
+        LineStartBuffer removed = new LineStartBuffer(last - line);
+        for (int i = line + 1; i <= last; i++) {
+            removed.add(getLineStart(i));
+        }
+        Edit edit = newEdit(root, line, end, removed, new LineStartBuffer(0), -length);
+        edit.apply();
+        return edit;
+    }
+
+    private Edit newEdit(LineRootElement root, int line, int end,
+            LineStartBuffer removed, LineStartBuffer added, int shift) {
+        int next = line + 1 + removed.size();
+        int lineEnd = next < size ? getLineStart(next) : end + 1;
+        if (removed.isEmpty() && added.isEmpty()) {
+            return new Edit(line, removed, added, shift);
+        }
+        return new LineChange(root, line, getLineStart(line), lineEnd, removed, added, shift);
+    }
+
+    @Override
+    void resize(int capacity) {
+        starts = Arrays.copyOf(starts, capacity);
+    }
+
+    @Override
+    void move(int from, int to, int n) {
+        System.arraycopy(starts, from, starts, to, n);
+    }
+
+    @Override
+    void shift(int i, int n, int shift) {
+        for (int end = i + n; i < end; i++) {
+            starts[i] += shift;
+        }
+    }
+
+    @Override
+    void copyFrom(int i, GapBuffer source, int index) {
+        LineStartBuffer lines = (LineStartBuffer) source;
+        starts[i] = lines.starts[lines.index(index)] + lines.delta(index);
+    }
+
+    @Override
+    public String toString() {
+        return "LineStartBuffer(" + size + " lines)";
+    }
+
+    /**
+     * A change of the lines: the starts of the lines after line, that were
+     * removed and added, and the shift of all the following lines.
+     */
+    class Edit extends AbstractUndoableEdit {
+
+        private static final long serialVersionUID = 1L;
+
+        final int line;
+        LineStartBuffer removed;
+        LineStartBuffer added;
+        int shift;
+
+        Edit(int line, LineStartBuffer removed, LineStartBuffer added, int shift) {
+            this.line = line;
+            this.removed = removed;
+            this.added = added;
+            this.shift = shift;
+        }
+
+        final void apply() {
+            replaceLines();
+            splice(line + 1, line + 1 + removed.size(), added, 0, added.size(), shift);
+        }
+
+        /**
+         * Called before the line starts are changed
+         */
+        void replaceLines() {
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            swap();
+            apply();
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            swap();
+            apply();
+        }
+
+        void swap() {
+            LineStartBuffer tmp = removed;
+            removed = added;
+            added = tmp;
+            shift = -shift;
+        }
+    }
+
+    /**
+     * An Edit that adds or removes lines.  To the views, the line containing
+     * the edit is replaced with the lines it became.
+     */
+    class LineChange extends Edit implements DocumentEvent.ElementChange {
+
+        private static final long serialVersionUID = 1L;
+
+        private final LineRootElement root;
+        private final int start;
+        // end of the last changed line, before the change
+        private int end;
+        // the elements of the removed lines that were handed out, by line
+        private Element[] replaced;
+
+        LineChange(LineRootElement root, int line, int start, int end,
+                LineStartBuffer removed, LineStartBuffer added, int shift) {
+            super(line, removed, added, shift);
+            this.root = root;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        void replaceLines() {
+            replaced = root.replaceLines(line, removed, start, end, added.size());
+        }
+
+        @Override
+        void swap() {
+            end += shift;
+            super.swap();
+        }
+
+        @Override
+        public Element getElement() {
+            return root;
+        }
+
+        @Override
+        public int getIndex() {
+            return line;
+        }
+
+        @Override
+        public Element[] getChildrenRemoved() {
+            Element[] lines = new Element[removed.size() + 1];
+            int s = start;
+            for (int i = 0; i <= removed.size(); i++) {
+                int next = i < removed.size() ? removed.getLineStart(i) : end;
+                lines[i] = replaced != null && replaced[i] != null ? replaced[i] : root.createLine(s, next);
+                s = next;
+            }
+            return lines;
+        }
+
+        @Override
+        public Element[] getChildrenAdded() {
+            Element[] lines = new Element[added.size() + 1];
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = root.getElement(line + i);
+            }
+            return lines;
+        }
+    }
+}
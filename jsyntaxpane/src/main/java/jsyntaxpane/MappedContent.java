@@ -0,0 +1,417 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * Read only document content backed by a memory mapped file.  The file is
+ * split in blocks of about 64 KB, and only the blocks that are read are
+ * decoded, keeping the last few of them.  So the heap needed does not grow
+ * with the size of the file.
+ *
+ * Opening the file scans it once, to count the chars and lines of every
+ * block.  The offsets of the lines in a block are only found when a line of
+ * that block is asked for.
+ *
+ * The file must be encoded in UTF-8 or in a charset with one byte per char,
+ * and hold less than 2G chars.  Malformed input is read as U+FFFD.
+ *
+ * @author Ayman Al-Sairafi
+ */
+public final class MappedContent implements AbstractDocument.Content, LineIndex {
+
+    // bytes per block, blocks are decoded as a whole
+    private static final int BLOCK = 1 << 16;
+    // bytes per mapping, a MappedByteBuffer holds less than 2 GB
+    private static final int MAPPING = 1 << 30;
+    private static final int CACHED_BLOCKS = 32;
+    private static final char REPLACEMENT = '\uFFFD';
+    private final MappedByteBuffer[] mappings;
+    private final Charset charset;
+    private final boolean utf8;
+    // for every block and one past the last: offset of its first byte, offset
+    // of its first char, and the number of newlines before it
+    private long[] blockBytes;
+    private int[] blockChars;
+    private int[] blockLines;
+    private int blocks;
+    private final Map<Integer, Block> cache = new LinkedHashMap<Integer, Block>(CACHED_BLOCKS, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Block> eldest) {
+            return size() > CACHED_BLOCKS;
+        }
+    };
+
+    /**
+     * Maps the given file
+     * @throws IllegalArgumentException if the charset is not supported
+     * @throws IOException if the file cannot be read, or is too large
+     */
+    public MappedContent(File file, Charset charset) throws IOException {
+        this.charset = charset;
+        utf8 = charset.equals(StandardCharsets.UTF_8);
+        if (!utf8 && (charset.newEncoder().maxBytesPerChar() != 1
+                || charset.newDecoder().maxCharsPerByte() != 1
+                || !Arrays.equals("\n".getBytes(charset), new byte[] { '\n' }))) {
+            throw new IllegalArgumentException("Unsupported charset: " + charset);
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            mappings = new MappedByteBuffer[(int) ((size + MAPPING - 1) / MAPPING)];
+            for (int i = 0; i < mappings.length; i++) {
+                long start = (long) i * MAPPING;
+                mappings[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(MAPPING, size - start));
+            }
+            scan(size);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /*
+     * Splits the file in blocks, and counts their chars and lines.  With
+     * UTF-8, blocks start at the first byte of a char, every byte but the
+     * continuation bytes starts a char, and a 4 byte sequence is a pair of
+     * surrogate chars.
+     */
+    private void scan(long size) throws IOException {
+        int capacity = (int) (size / BLOCK) + 2;
+        blockBytes = new long[capacity];
+        blockChars = new int[capacity];
+        blockLines = new int[capacity];
+        long chars = 0;
+        int lines = 0;
+        long nextBlock = 0;
+        for (long p = 0; p < size; p++) {
+            int b = byteAt(p);
+            if (p >= nextBlock && (!utf8 || (b & 0xC0) != 0x80)) {
+                addBlock(p, (int) chars, lines);
+                nextBlock = p + BLOCK;
+            }
+            if (!utf8) {
+                chars++;
+            } else if ((b & 0xC0) != 0x80) {
+                chars += (b & 0xF8) == 0xF0 ? 2 : 1;
+            }
+            if (b == '\n') {
+                lines++;
+            }
+            if (chars >= Integer.MAX_VALUE) {
+                throw new IOException("File too large: more than " + (Integer.MAX_VALUE - 1) + " chars");
+            }
+        }
+        addBlock(size, (int) chars, lines);
+        blocks--;
+    }
+
+    private void addBlock(long byteOffset, int charOffset, int lines) {
+        if (blocks == blockBytes.length) {
+            blockBytes = Arrays.copyOf(blockBytes, blocks * 2);
+            blockChars = Arrays.copyOf(blockChars, blocks * 2);
+            blockLines = Arrays.copyOf(blockLines, blocks * 2);
+        }
+        blockBytes[blocks] = byteOffset;
+        blockChars[blocks] = charOffset;
+        blockLines[blocks] = lines;
+        blocks++;
+    }
+
+    private int byteAt(long p) {
+        return mappings[(int) (p / MAPPING)].get((int) (p % MAPPING)) & 0xFF;
+    }
+
+    /**
+     * Returns the number of chars, plus one for the implied newline at the
+     * end, like all Content
+     */
+    @Override
+    public int length() {
+        return blockChars[blocks] + 1;
+    }
+
+    @Override
+    public Position createPosition(final int offset) throws BadLocationException {
+        if (offset < 0 || offset > length()) {
+            throw new BadLocationException("Invalid position", offset);
+        }
+        // the content never changes, and neither do the positions
+        return new Position() {
+
+            @Override
+            public int getOffset() {
+                return offset;
+            }
+        };
+    }
+
+    @Override
+    public UndoableEdit insertString(int where, String str) throws BadLocationException {
+        throw new BadLocationException("Read only content", where);
+    }
+
+    @Override
+    public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        throw new BadLocationException("Read only content", where);
+    }
+
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        Segment s = new Segment();
+        getChars(where, len, s);
+        return s.toString();
+    }
+
+    /**
+     * Gets the chars in [where, where + len).  If they are all in one block,
+     * the segment shares the array of the decoded block, otherwise they are
+     * copied, unless the segment allows a partial return.
+     */
+    @Override
+    public void getChars(int where, int len, Segment txt) throws BadLocationException {
+        int chars = blockChars[blocks];
+        if (where < 0 || len < 0 || where + len > chars + 1) {
+            throw new BadLocationException("Invalid range " + where + "+" + len, where);
+        }
+        if (len == 0) {
+            txt.array = new char[0];
+            txt.offset = 0;
+            txt.count = 0;
+            return;
+        }
+        if (where == chars) {
+            txt.array = new char[] { '\n' };
+            txt.offset = 0;
+            txt.count = 1;
+            return;
+        }
+        int b = blockAt(where);
+        Block block = getBlock(b);
+        int start = where - blockChars[b];
+        int available = block.text.length - start;
+        if (len <= available || txt.isPartialReturn()) {
+            txt.array = block.text;
+            txt.offset = start;
+            txt.count = Math.min(len, available);
+            return;
+        }
+        char[] copy = new char[len];
+        int n = 0;
+        while (n < len) {
+            if (where + n == chars) {
+                copy[n++] = '\n';
+                break;
+            }
+            b = blockAt(where + n);
+            block = getBlock(b);
+            start = where + n - blockChars[b];
+            int count = Math.min(len - n, block.text.length - start);
+            System.arraycopy(block.text, start, copy, n, count);
+            n += count;
+        }
+        txt.array = copy;
+        txt.offset = 0;
+        txt.count = len;
+    }
+
+    @Override
+    public int getLineCount() {
+        return blockLines[blocks] + 1;
+    }
+
+    @Override
+    public int getLineStart(int line) {
+        if (line <= 0) {
+            return 0;
+        }
+        // the block holding the newline before the line
+        int lo = 0;
+        int hi = blocks - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (blockLines[mid] < line) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        int[] starts = getBlock(lo).getLineStarts(blockChars[lo]);
+        return starts[Math.min(line - blockLines[lo], starts.length) - 1];
+    }
+
+    @Override
+    public int getLineAt(int offset) {
+        if (offset >= blockChars[blocks]) {
+            return blockLines[blocks];
+        }
+        int b = blockAt(offset);
+        int[] starts = getBlock(b).getLineStarts(blockChars[b]);
+        int lo = 0;
+        int hi = starts.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= offset) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return blockLines[b] + lo;
+    }
+
+    /*
+     * Returns the block containing the char at offset
+     */
+    private int blockAt(int offset) {
+        int lo = 0;
+        int hi = blocks - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (blockChars[mid] <= offset) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    private synchronized Block getBlock(int b) {
+        Block block = cache.get(b);
+        if (block == null) {
+            block = new Block(decode(b));
+            cache.put(b, block);
+        }
+        return block;
+    }
+
+    private char[] decode(int b) {
+        long from = blockBytes[b];
+        long to = blockBytes[b + 1];
+        char[] text = new char[blockChars[b + 1] - blockChars[b]];
+        if (!utf8) {
+            // single byte blocks never cross a mapping
+            ByteBuffer bytes = mappings[(int) (from / MAPPING)].duplicate();
+            bytes.position((int) (from % MAPPING));
+            bytes.limit(bytes.position() + (int) (to - from));
+            CharsetDecoder decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            try {
+                CharBuffer chars = decoder.decode(bytes);
+                chars.get(text, 0, Math.min(text.length, chars.remaining()));
+            } catch (CharacterCodingException ex) {
+                Arrays.fill(text, REPLACEMENT);
+            }
+            return text;
+        }
+        int j = 0;
+        long p = from;
+        while (p < to) {
+            int c = byteAt(p++);
+            if (c < 0x80) {
+                text[j++] = (char) c;
+                continue;
+            }
+            if ((c & 0xC0) == 0x80) {
+                // not counted as a char when scanning
+                continue;
+            }
+            if (c >= 0xF8) {
+                text[j++] = REPLACEMENT;
+                continue;
+            }
+            int n = c >= 0xF0 ? 3 : c >= 0xE0 ? 2 : 1;
+            int cp = c & (0x3F >> n);
+            int k = 0;
+            while (k < n && p < to && (byteAt(p) & 0xC0) == 0x80) {
+                cp = (cp << 6) | (byteAt(p++) & 0x3F);
+                k++;
+            }
+            if (n == 3) {
+                boolean valid = k == 3 && cp >= 0x10000 && cp <= Character.MAX_CODE_POINT;
+                text[j++] = valid ? Character.highSurrogate(cp) : REPLACEMENT;
+                text[j++] = valid ? Character.lowSurrogate(cp) : REPLACEMENT;
+            } else {
+                // overlong sequences and lone surrogates are malformed
+                boolean valid = k == n && cp >= (n == 1 ? 0x80 : 0x800) && !Character.isSurrogate((char) cp);
+                text[j++] = valid ? (char) cp : REPLACEMENT;
+            }
+        }
+        return text;
+    }
+
+    @Override
+    public String toString() {
+        return "MappedContent(" + blockChars[blocks] + " chars, " + getLineCount() + " lines)";
+    }
+
+    /*
+     * The decoded text of a block, and the offsets of the lines starting in it
+     */
+    private static final class Block {
+
+        final char[] text;
+        private int[] lineStarts;
+
+        Block(char[] text) {
+            this.text = text;
+        }
+
+        /*
+         * Returns the offsets of the chars following a newline in this block,
+         * which starts at the given offset
+         */
+        synchronized int[] getLineStarts(int offset) {
+            if (lineStarts == null) {
+                int n = 0;
+                for (char c : text) {
+                    if (c == '\n') {
+                        n++;
+                    }
+                }
+                lineStarts = new int[n];
+                n = 0;
+                for (int i = 0; i < text.length; i++) {
+                    if (text[i] == '\n') {
+                        lineStarts[n++] = offset + i + 1;
+                    }
+                }
+            }
+            return lineStarts;
+        }
+    }
+}
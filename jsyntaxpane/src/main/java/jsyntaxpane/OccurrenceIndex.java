@@ -0,0 +1,480 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * The occurrences of the words in a TokenBuffer, like identifiers: the
+ * tokens of some types, with their text.  The distinct texts are kept in a
+ * hash map, as {@link Word}s that count their occurrences, and the
+ * occurrences in document order, each with its start and its Word.  So
+ * finding the occurrences of a word in a part of the document compares
+ * references, and does not read any text.
+ *
+ * An index can also have the words that a pattern matches in the text of
+ * the tokens, like the words completed by
+ * {@link jsyntaxpane.actions.CompleteWordAction}.  Those are kept sorted,
+ * and by their camel case humps too, so the words that start with an
+ * abbreviation are found without looking at the others, see
+ * {@link #getCompletions(String)}.
+ *
+ * The starts are kept like the offsets of the tokens in a {@link GapBuffer}.
+ * The index is updated with the tokens of each relexed range, reading the
+ * text of those tokens only.  It is dropped when the tokens are replaced as
+ * a whole, and built again when needed.  When the text of the new tokens
+ * cannot be read, like when the tokens of the background parser are
+ * published after the document was edited again, their range is kept
+ * pending, and indexed the next time the index is asked for while the
+ * tokens match the text.
+ *
+ * Like the tokens, the index is only valid until the document is changed,
+ * and should be used under a read lock.
+ *
+ * @author Ayman Al-Sairafi
+ */
+public final class OccurrenceIndex extends GapBuffer {
+
+    /**
+     * The text of some occurrences.  There is one Word for each distinct
+     * text, as long as it occurs in the document.
+     */
+    public static final class Word {
+
+        private final String text;
+        private int count;
+
+        private Word(String text) {
+            this.text = text;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Returns the number of occurrences of this word in the document
+         */
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return "Word(" + text + ", " + count + ")";
+        }
+    }
+    private final Document doc;
+    // the types of the tokens indexed, or null for all of them
+    private final Set<TokenType> types;
+    // the words in the tokens, or null if the tokens are the words
+    private final Pattern pattern;
+    private final Map<String, Word> words;
+    // the words by their humps and text, if they are sorted
+    private final NavigableMap<String, Word> humps;
+    private final Segment segment = new Segment();
+    private final Matcher matcher;
+    private int[] starts;
+    private Word[] occurrences;
+    // ranges of the document whose tokens are not indexed yet, or null
+    private DamageBuffer pending;
+
+    private OccurrenceIndex(Document doc, Set<TokenType> types, Pattern pattern,
+            Map<String, Word> words, NavigableMap<String, Word> humps, int capacity) {
+        super(Math.max(capacity, 4));
+        capacity = gapLength;
+        this.doc = doc;
+        this.types = types;
+        this.pattern = pattern;
+        this.words = words;
+        this.humps = humps;
+        matcher = pattern == null ? null : pattern.matcher("");
+        starts = new int[capacity];
+        occurrences = new Word[capacity];
+    }
+
+    /**
+     * Creates the index of the words of the given types in the given tokens
+     * of doc.  All the tokens are pending, see {@link #resolve(TokenBuffer)}.
+     */
+    static OccurrenceIndex build(TokenBuffer tokens, Document doc, Set<TokenType> types) {
+        EnumSet<TokenType> copy = EnumSet.noneOf(TokenType.class);
+        copy.addAll(types);
+        return build(tokens, new OccurrenceIndex(doc, copy, null, new HashMap<String, Word>(),
+                null, tokens.size() / 4));
+    }
+
+    /**
+     * Creates the index of the words that pattern matches in the text of the
+     * given tokens of doc.  Words do not span tokens.  All the tokens are
+     * pending, see {@link #resolve(TokenBuffer)}.
+     */
+    static OccurrenceIndex buildWords(TokenBuffer tokens, Document doc, Pattern pattern) {
+        return build(tokens, new OccurrenceIndex(doc, null, pattern, new TreeMap<String, Word>(),
+                new TreeMap<String, Word>(), tokens.size()));
+    }
+
+    private static OccurrenceIndex build(TokenBuffer tokens, OccurrenceIndex index) {
+        if (!tokens.isEmpty()) {
+            index.pending = new DamageBuffer(1);
+            index.pending.add(0, 0, tokens.getEnd(tokens.size() - 1));
+        }
+        return index;
+    }
+
+    /**
+     * Indexes the pending tokens, which must match the text of the document
+     */
+    void resolve(TokenBuffer tokens) {
+        if (pending == null) {
+            return;
+        }
+        for (int i = 0; i < pending.size(); i++) {
+            int start = pending.getStart(i);
+            int end = pending.getEnd(i);
+            OccurrenceIndex entries = read(tokens, tokens.indexFrom(start), tokens.indexFrom(end));
+            if (entries == null) {
+                Logger.getLogger(OccurrenceIndex.class.getName()).log(Level.WARNING,
+                        "cannot read the tokens in [{0}, {1})", new Object[] { start, end });
+                return;
+            }
+            replace(indexFrom(start), indexFrom(end), entries, 0);
+        }
+        pending = null;
+    }
+
+    /**
+     * Returns a copy of this index, for a copy of its tokens, that can be
+     * changed independently.  The copy has its own Words.
+     */
+    OccurrenceIndex copy() {
+        Map<String, Word> copiedWords = pattern == null ? new HashMap<String, Word>()
+                : new TreeMap<String, Word>();
+        OccurrenceIndex copy = new OccurrenceIndex(doc, types, pattern, copiedWords,
+                humps == null ? null : new TreeMap<String, Word>(), size);
+        Map<Word, Word> copies = new IdentityHashMap<Word, Word>(words.size());
+        for (Word w : words.values()) {
+            Word c = new Word(w.text);
+            c.count = w.count;
+            copies.put(w, c);
+            copiedWords.put(c.text, c);
+            if (copy.humps != null) {
+                copy.humps.put(getHumpKey(c.text), c);
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            int ndx = copy.index(copy.append());
+            copy.starts[ndx] = getStart(i);
+            copy.occurrences[ndx] = copies.get(getWord(i));
+        }
+        if (pending != null) {
+            copy.pending = new DamageBuffer(pending.size());
+            for (int i = 0; i < pending.size(); i++) {
+                copy.pending.add(pending.getStart(i), pending.getStart(i), pending.getEnd(i));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Returns true if this index was built for the given document and types
+     */
+    boolean isFor(Document doc, Set<TokenType> types) {
+        return this.doc == doc && this.types != null && this.types.equals(types);
+    }
+
+    /**
+     * Returns true if this index was built for the words of the given
+     * document and pattern
+     */
+    boolean isFor(Document doc, Pattern pattern) {
+        return this.doc == doc && this.pattern != null
+                && this.pattern.pattern().equals(pattern.pattern())
+                && this.pattern.flags() == pattern.flags();
+    }
+
+    /**
+     * Returns the Word with the given text, or null if it does not occur
+     */
+    public Word getWord(String text) {
+        return words.get(text);
+    }
+
+    /**
+     * Returns the words that start with abbr, in order, then those whose
+     * camel case humps do, see {@link jsyntaxpane.util.StringUtils#camelCaseMatch(String, String)}.
+     * Only the indexes of the words of a pattern can tell.
+     */
+    public List<Word> getCompletions(String abbr) {
+        if (humps == null) {
+            throw new IllegalStateException("the words of " + this + " are not sorted");
+        }
+        List<Word> list = new ArrayList<Word>();
+        NavigableMap<String, Word> sorted = (NavigableMap<String, Word>) words;
+        for (Map.Entry<String, Word> e : sorted.tailMap(abbr, true).entrySet()) {
+            if (!e.getKey().startsWith(abbr)) {
+                break;
+            }
+            list.add(e.getValue());
+        }
+        for (Map.Entry<String, Word> e : humps.tailMap(abbr, true).entrySet()) {
+            if (!e.getKey().startsWith(abbr)) {
+                break;
+            }
+            if (!e.getValue().text.startsWith(abbr)) {
+                list.add(e.getValue());
+            }
+        }
+        return list;
+    }
+
+    public Word getWord(int i) {
+        return occurrences[index(i)];
+    }
+
+    public int getStart(int i) {
+        return starts[index(i)] + delta(i);
+    }
+
+    public int getEnd(int i) {
+        int ndx = index(i);
+        return starts[ndx] + occurrences[ndx].text.length() + delta(i);
+    }
+
+    /**
+     * Returns the index of the first occurrence that starts at or after pos,
+     * or the number of occurrences if there is none.
+     */
+    public int indexFrom(int pos) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getStart(mid) < pos) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Replaces the occurrences of tokens [from, to) of buffer with those of
+     * tokens [rFrom, rTo) of replacement, as TokenBuffer.splice is about to
+     * do with the tokens.  If readable is false, the text of the new tokens
+     * is not the text of the document yet, and they are left pending.
+     */
+    void update(TokenBuffer buffer, int from, int to, TokenBuffer replacement, int rFrom, int rTo,
+            int shift, boolean readable) {
+        // occurrences are tokens with a length, so they start where their token does
+        int k0 = from < buffer.size() ? indexFrom(buffer.getStart(from)) : size;
+        int k1 = to < buffer.size() ? indexFrom(buffer.getStart(to)) : size;
+        // the pending ranges must be shifted like the tokens, so once there
+        // are some, the new tokens are left pending as well
+        OccurrenceIndex entries = readable && pending == null ? read(replacement, rFrom, rTo) : null;
+        if (entries == null) {
+            // the changed text starts after the token before the splice
+            int start = from > 0 ? buffer.getEnd(from - 1) : 0;
+            int oldEnd;
+            int newEnd;
+            if (to < buffer.size()) {
+                oldEnd = buffer.getStart(to);
+                newEnd = oldEnd + shift;
+            } else {
+                oldEnd = Math.max(start, from < to ? buffer.getEnd(to - 1) : start);
+                newEnd = Math.max(start, rFrom < rTo ? replacement.getEnd(rTo - 1) : start);
+            }
+            if (pending == null) {
+                pending = new DamageBuffer(4);
+            }
+            pending.add(start, oldEnd, newEnd);
+            entries = new OccurrenceIndex(doc, types, null, words, humps, 0);
+        }
+        replace(k0, k1, entries, shift);
+    }
+
+    /**
+     * Indexes token i of tokens, that was just appended to them
+     */
+    void append(TokenBuffer tokens, int i) {
+        if (!indexed(tokens, i)) {
+            return;
+        }
+        int start = tokens.getStart(i);
+        if (pending == null) {
+            try {
+                add(this, start, tokens.getLength(i));
+                return;
+            } catch (BadLocationException ex) {
+                pending = new DamageBuffer(4);
+            }
+        }
+        pending.add(start, start, tokens.getEnd(i));
+    }
+
+    /*
+     * Returns the occurrences in tokens [from, to), or null if their text
+     * could not be read
+     */
+    private OccurrenceIndex read(TokenBuffer tokens, int from, int to) {
+        OccurrenceIndex entries = new OccurrenceIndex(doc, types, null, words, humps, to - from);
+        try {
+            for (int j = from; j < to; j++) {
+                if (indexed(tokens, j)) {
+                    add(entries, tokens.getStart(j), tokens.getLength(j));
+                }
+            }
+        } catch (BadLocationException ex) {
+            entries.release(0, entries.size());
+            return null;
+        }
+        return entries;
+    }
+
+    /*
+     * Replaces occurrences [k0, k1) with entries, and shifts the ones after
+     * them by shift
+     */
+    private void replace(int k0, int k1, OccurrenceIndex entries, int shift) {
+        // the new occurrences are counted first, so that words that are
+        // still there keep their Word
+        release(k0, k1);
+        splice(k0, k1, entries, 0, entries.size(), shift);
+    }
+
+    /*
+     * Uncounts occurrences [k0, k1), and forgets the words that no longer
+     * occur
+     */
+    private void release(int k0, int k1) {
+        for (int k = k0; k < k1; k++) {
+            Word w = getWord(k);
+            if (--w.count == 0) {
+                words.remove(w.text);
+                if (humps != null) {
+                    humps.remove(getHumpKey(w.text));
+                }
+            }
+        }
+    }
+
+    /*
+     * Returns true if token i of tokens is a word of this index
+     */
+    private boolean indexed(TokenBuffer tokens, int i) {
+        return tokens.getLength(i) > 0 && (types == null || types.contains(tokens.getType(i)));
+    }
+
+    /*
+     * Appends the occurrences in the token at start to target: the token,
+     * or the words of the pattern in it
+     */
+    private void add(OccurrenceIndex target, int start, int length) throws BadLocationException {
+        doc.getText(start, length, segment);
+        if (pattern == null) {
+            target.store(start, segment.toString());
+            return;
+        }
+        matcher.reset(segment);
+        while (matcher.find()) {
+            if (matcher.end() > matcher.start()) {
+                target.store(start + matcher.start(), matcher.group());
+            }
+        }
+    }
+
+    /*
+     * Appends an occurrence of text at start
+     */
+    private void store(int start, String text) {
+        Word w = words.get(text);
+        if (w == null) {
+            w = new Word(text);
+            words.put(text, w);
+            if (humps != null) {
+                humps.put(getHumpKey(text), w);
+            }
+        }
+        w.count++;
+        int ndx = index(append());
+        starts[ndx] = start;
+        occurrences[ndx] = w;
+    }
+
+    /*
+     * Returns the first char of text and its upper case chars, then the
+     * text, so that the keys of the words with the same humps differ
+     */
+    private static String getHumpKey(String text) {
+        StringBuilder sb = new StringBuilder(text.length() + 2);
+        sb.append(text.charAt(0));
+        for (int i = 1; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isUpperCase(c)) {
+                sb.append(c);
+            }
+        }
+        return sb.append('\0').append(text).toString();
+    }
+
+    @Override
+    void resize(int capacity) {
+        starts = Arrays.copyOf(starts, capacity);
+        occurrences = Arrays.copyOf(occurrences, capacity);
+    }
+
+    @Override
+    void move(int from, int to, int n) {
+        System.arraycopy(starts, from, starts, to, n);
+        System.arraycopy(occurrences, from, occurrences, to, n);
+    }
+
+    @Override
+    void shift(int i, int n, int shift) {
+        for (int end = i + n; i < end; i++) {
+            starts[i] += shift;
+        }
+    }
+
+    @Override
+    void copyFrom(int i, GapBuffer source, int index) {
+        OccurrenceIndex entries = (OccurrenceIndex) source;
+        int ndx = entries.index(index);
+        starts[i] = entries.starts[ndx] + entries.delta(index);
+        occurrences[i] = entries.occurrences[ndx];
+    }
+
+    @Override
+    public String toString() {
+        return "OccurrenceIndex(" + size + " occurrences of " + words.size() + " words"
+                + (pattern == null ? ")" : " of " + pattern + ")");
+    }
+}
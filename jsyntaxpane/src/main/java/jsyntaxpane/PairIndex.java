@@ -0,0 +1,377 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.util.Arrays;
+
+/**
+ * The matching pairs in a TokenBuffer.  There is one entry for each token
+ * with a pair value, in document order, holding the index of the token, the
+ * entry of its partner and its nesting depth.  Pairs are matched like
+ * {@link SyntaxDocument#getPairFor(Token)} does: a token only nests with
+ * tokens of the same absolute pair value.
+ *
+ * The token indexes are kept like offsets in a {@link GapBuffer}.  The
+ * partners before a pivot entry are kept as is, and the others as their
+ * distance to the end, so entries can be added and removed at the pivot
+ * without touching the others.  Moving the pivot updates the partners of
+ * the entries it moves over.  An edit only matches again the entries
+ * of the smallest span around it that no pair crosses, and that ends with
+ * the same unmatched tokens as before.  Typing in an identifier only moves
+ * the gap, and typing a bracket rematches the block it is typed in.
+ *
+ * @author Ayman Al-Sairafi
+ */
+final class PairIndex extends GapBuffer {
+
+    /**
+     * Partner of a token that has none
+     */
+    static final int UNMATCHED = -1;
+    // number of absolute pair values
+    private static final int KINDS = 129;
+    // stored partner of an entry that has none
+    private static final int NONE = Integer.MIN_VALUE;
+    private int[] tokens;
+    // the partner of each entry, minus size if it is at or after the pivot
+    private int[] partners;
+    private int[] depths;
+    private int pivot;
+
+    PairIndex(int capacity) {
+        super(Math.max(capacity, 4));
+        capacity = gapLength;
+        tokens = new int[capacity];
+        partners = new int[capacity];
+        depths = new int[capacity];
+    }
+
+    /**
+     * Matches all the pairs in the given tokens
+     */
+    static PairIndex build(TokenBuffer buffer) {
+        int n = 0;
+        int[] toks = new int[64];
+        byte[] values = new byte[64];
+        for (int i = 0; i < buffer.size(); i++) {
+            byte pairValue = buffer.getPairValue(i);
+            if (pairValue == 0) {
+                continue;
+            }
+            if (n == toks.length) {
+                toks = Arrays.copyOf(toks, 2 * n);
+                values = Arrays.copyOf(values, 2 * n);
+            }
+            toks[n] = i;
+            values[n++] = pairValue;
+        }
+        return match(toks, values, n, new int[KINDS]);
+    }
+
+    /*
+     * Matches the pairs of the n tokens with the given indexes and pair
+     * values, starting with the given number of open tokens of each kind,
+     * and returns their entries.  A closing token that does not match one
+     * of the given tokens is unmatched.
+     */
+    private static PairIndex match(int[] toks, byte[] values, int n, int[] height) {
+        PairIndex index = new PairIndex(n);
+        // one stack of open entries per absolute pair value, linked through below
+        int[] top = new int[KINDS];
+        Arrays.fill(top, UNMATCHED);
+        int[] below = new int[n];
+        for (int k = 0; k < n; k++) {
+            int pairValue = values[k];
+            int kind = Math.abs(pairValue);
+            int ndx = index.index(index.append());
+            index.tokens[ndx] = toks[k];
+            index.partners[ndx] = NONE;
+            if (pairValue > 0) {
+                index.depths[ndx] = height[kind]++;
+                below[k] = top[kind];
+                top[kind] = k;
+            } else if (top[kind] != UNMATCHED) {
+                int open = top[kind];
+                top[kind] = below[open];
+                index.depths[ndx] = --height[kind];
+                index.partners[ndx] = open;
+                index.partners[index.index(open)] = k;
+            } else {
+                index.depths[ndx] = 0;
+            }
+        }
+        index.pivot = n;
+        return index;
+    }
+
+    /**
+     * Returns the entry of the token with the given index, or -1 if that
+     * token has no pair value
+     */
+    int entryOf(int token) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int t = getToken(mid);
+            if (t < token) {
+                lo = mid + 1;
+            } else if (t > token) {
+                hi = mid;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the first entry for a token at or after the given token index
+     */
+    int entryFrom(int token) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getToken(mid) < token) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    int getToken(int k) {
+        return tokens[index(k)] + delta(k);
+    }
+
+    /**
+     * Returns the entry of the partner, or UNMATCHED
+     */
+    int getPartner(int k) {
+        int partner = partners[index(k)];
+        return partner == NONE ? UNMATCHED : partner >= 0 ? partner : partner + size;
+    }
+
+    /*
+     * Moves the pivot to entry k
+     */
+    private void movePivot(int k) {
+        for (; pivot < k; pivot++) {
+            int partner = getPartner(pivot);
+            if (partner != UNMATCHED) {
+                partners[index(partner)] = pivot;
+            }
+        }
+        for (; pivot > k; pivot--) {
+            int partner = getPartner(pivot - 1);
+            if (partner != UNMATCHED) {
+                partners[index(partner)] = pivot - 1 - size;
+            }
+        }
+    }
+
+    int getDepth(int k) {
+        return depths[index(k)];
+    }
+
+    /**
+     * Updates the index for the tokens in [from, to) of buffer being replaced
+     * with the tokens in [rFrom, rTo) of replacement.  The entries of the
+     * replaced tokens, and of the tokens around them up to the bounds of the
+     * nesting span they are in, are matched again.  If the new pairs do not
+     * fit in that span, it is widened until they do, up to the whole index.
+     */
+    void update(TokenBuffer buffer, int from, int to, TokenBuffer replacement, int rFrom, int rTo) {
+        int k0 = entryFrom(from);
+        int k1 = entryFrom(to);
+        int shift = (rTo - rFrom) - (to - from);
+        int a = k0;
+        int b = k1;
+        // the entries in [checkedFrom, checkedTo) are in [a, b) with their partners
+        int checkedFrom = k0;
+        int checkedTo = k0;
+        while (true) {
+            while (checkedFrom > a || checkedTo < b) {
+                int k = checkedFrom > a ? --checkedFrom : checkedTo++;
+                int partner = getPartner(k);
+                if (partner != UNMATCHED) {
+                    a = Math.min(a, partner);
+                    b = Math.max(b, partner + 1);
+                }
+            }
+            PairIndex entries = rematch(buffer, a, k0, k1, b, replacement, rFrom, rTo, from, shift);
+            if (entries != null) {
+                movePivot(b);
+                splice(a, b, entries, 0, entries.size(), shift);
+                // the new entries only have partners among them
+                pivot = a + entries.size();
+                for (int k = a; k < pivot; k++) {
+                    int ndx = index(k);
+                    if (partners[ndx] != NONE) {
+                        partners[ndx] += a;
+                    }
+                }
+                return;
+            }
+            int more = Math.max(b - a, 1);
+            a = Math.max(0, a - more);
+            b = Math.min(size, b + more);
+        }
+    }
+
+    /*
+     * Matches the entries of [a, b), with those of [k0, k1) replaced by the
+     * tokens in [rFrom, rTo) of replacement, and returns the new entries.
+     * No pair crosses the bounds of [a, b).  Returns null if the new entries
+     * leave other tokens unmatched than the old ones, as they could then
+     * match tokens outside of [a, b), unless that is the whole index.
+     */
+    private PairIndex rematch(TokenBuffer buffer, int a, int k0, int k1, int b,
+            TokenBuffer replacement, int rFrom, int rTo, int from, int shift) {
+        int n = (k0 - a) + (b - k1);
+        for (int j = rFrom; j < rTo; j++) {
+            if (replacement.getPairValue(j) != 0) {
+                n++;
+            }
+        }
+        int[] toks = new int[n];
+        byte[] values = new byte[n];
+        // the open tokens of each kind before a, known from the first entry
+        // of that kind, and the unmatched entries of [a, b) by kind
+        int[] height = new int[KINDS];
+        boolean[] known = new boolean[KINDS];
+        int[] opens = new int[KINDS];
+        int[] closes = new int[KINDS];
+        for (int k = a; k < b; k++) {
+            byte pairValue = buffer.getPairValue(getToken(k));
+            int kind = Math.abs(pairValue);
+            if (!known[kind]) {
+                known[kind] = true;
+                // a first closing entry is unmatched, so none are open
+                height[kind] = pairValue > 0 ? getDepth(k) : 0;
+            }
+            if (getPartner(k) == UNMATCHED) {
+                if (pairValue > 0) {
+                    opens[kind]++;
+                } else {
+                    closes[kind]++;
+                }
+            }
+        }
+        int i = 0;
+        for (int k = a; k < k0; k++) {
+            int token = getToken(k);
+            toks[i] = token;
+            values[i++] = buffer.getPairValue(token);
+        }
+        for (int j = rFrom; j < rTo; j++) {
+            byte pairValue = replacement.getPairValue(j);
+            if (pairValue == 0) {
+                continue;
+            }
+            int kind = Math.abs(pairValue);
+            if (!known[kind]) {
+                known[kind] = true;
+                height[kind] = getHeight(buffer, a, kind);
+            }
+            toks[i] = from + j - rFrom;
+            values[i++] = pairValue;
+        }
+        for (int k = k1; k < b; k++) {
+            int token = getToken(k);
+            toks[i] = token + shift;
+            values[i++] = buffer.getPairValue(token);
+        }
+        PairIndex entries = match(toks, values, n, height);
+        if (a == 0 && b == size) {
+            return entries;
+        }
+        for (int k = 0; k < n; k++) {
+            if (entries.getPartner(k) == UNMATCHED) {
+                int kind = Math.abs(values[k]);
+                if (values[k] > 0) {
+                    opens[kind]--;
+                } else {
+                    closes[kind]--;
+                }
+            }
+        }
+        for (int kind = 0; kind < KINDS; kind++) {
+            if (opens[kind] != 0 || closes[kind] != 0) {
+                return null;
+            }
+        }
+        return entries;
+    }
+
+    /*
+     * Returns the number of open tokens of the given kind before entry k
+     */
+    private int getHeight(TokenBuffer buffer, int k, int kind) {
+        while (--k >= 0) {
+            byte pairValue = buffer.getPairValue(getToken(k));
+            if (Math.abs(pairValue) == kind) {
+                return pairValue > 0 ? getDepth(k) + 1 : getDepth(k);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns a copy of this index, that can be changed independently
+     */
+    PairIndex copy() {
+        PairIndex copy = new PairIndex(size);
+        for (int k = 0; k < size; k++) {
+            copy.copyFrom(k, this, k);
+        }
+        copy.size = size;
+        copy.gapStart = size;
+        copy.gapLength -= size;
+        copy.pivot = pivot;
+        return copy;
+    }
+
+    @Override
+    void resize(int capacity) {
+        tokens = Arrays.copyOf(tokens, capacity);
+        partners = Arrays.copyOf(partners, capacity);
+        depths = Arrays.copyOf(depths, capacity);
+    }
+
+    @Override
+    void move(int from, int to, int n) {
+        System.arraycopy(tokens, from, tokens, to, n);
+        System.arraycopy(partners, from, partners, to, n);
+        System.arraycopy(depths, from, depths, to, n);
+    }
+
+    @Override
+    void shift(int i, int n, int shift) {
+        for (int end = i + n; i < end; i++) {
+            tokens[i] += shift;
+        }
+    }
+
+    @Override
+    void copyFrom(int i, GapBuffer source, int index) {
+        PairIndex pairs = (PairIndex) source;
+        int ndx = pairs.index(index);
+        tokens[i] = pairs.tokens[ndx] + pairs.delta(index);
+        partners[i] = pairs.partners[ndx];
+        depths[i] = pairs.depths[ndx];
+    }
+}
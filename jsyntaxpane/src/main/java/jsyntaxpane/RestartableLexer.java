@@ -0,0 +1,59 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A Lexer that returns its Tokens one at a time, and that can save its
+ * state at any token boundary and later resume lexing from that state.
+ *
+ * The SyntaxDocument uses this to keep a checkpoint at the start of each
+ * line, so that after an edit lexing can restart on the damaged line
+ * instead of the top of the document.
+ *
+ * @author Ayman Al-Sairafi
+ */
+public interface RestartableLexer extends Lexer {
+
+    /**
+     * Prepares the lexer to read Tokens from the given reader.
+     * @param reader text to lex
+     * @param ofst offset to add to start of each token, this is the document
+     * position of the first character of the reader
+     * @param state state to resume from, as returned by {@link #getState()}
+     * at that position.  null starts in the initial state.
+     */
+    public void restart(Reader reader, int ofst, LexerState state);
+
+    /**
+     * Lexes the next token and appends it to the given buffer, without
+     * creating a Token object.
+     * @return false if there are no more tokens
+     * @throws java.io.IOException
+     */
+    public boolean nextToken(TokenBuffer tokens) throws IOException;
+
+    /**
+     * Returns the position, including the offset, just after the text
+     * consumed so far.  This is the token boundary getState applies to.
+     */
+    public int getPosition();
+
+    /**
+     * Returns the state of the lexer at the current position.
+     */
+    public LexerState getState();
+}
@@ -0,0 +1,564 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Segment;
+
+/**
+ * A trigram index of the text of a SyntaxDocument, which tells the parts of
+ * the document a literal can occur in.  The document is cut in blocks, and
+ * each block keeps the set of the trigrams that start in it, lower cased,
+ * as the bits of a small hash set: a set bit means that some trigram with
+ * that hash is in the block.  A search for a literal only has to look at
+ * the blocks that have the bits of all its trigrams, and at those that have
+ * not been indexed yet.
+ *
+ * The starts of the blocks are kept like the offsets of the tokens in a
+ * {@link GapBuffer}.  An edit only shifts them, and marks the block it is
+ * in as not indexed.  The blocks without trigrams are indexed again on a
+ * background thread, a block at a time under the read lock of the
+ * document, after the index is used.
+ *
+ * The size of the blocks is chosen so that the trigram sets fit in the
+ * memory limit of the document, see {@link SyntaxDocument#setSearchIndexLimit(int)}.
+ *
+ * @author Ayman Al-Sairafi
+ */
+public final class SearchIndex extends GapBuffer {
+
+    // bits in the trigram set of a block, and how many bits of a hash that is
+    private static final int GRAM_BITS = 8192;
+    private static final int GRAM_HASH_BITS = 13;
+    // bytes used by a block: its trigram set, and its start and array slot
+    private static final int BLOCK_BYTES = GRAM_BITS / 8 + 24;
+    private static final int MIN_BLOCK = 4096;
+    private static final int MAX_BLOCK = 1024 * 1024;
+    // the trigrams of a literal looked up, at most
+    private static final int MAX_QUERY_GRAMS = 16;
+    private static ExecutorService indexer;
+    private final SyntaxDocument doc;
+    private final int blockSize;
+    private final Segment segment = new Segment();
+    private int[] starts;
+    // the trigram set of each block, null if it must be indexed
+    private long[][] grams;
+    // number of blocks without trigrams
+    private int unindexed;
+    // next block the indexer looks at
+    private int cursor;
+    private boolean scheduled;
+    private volatile boolean dropped;
+    private final Runnable indexBlock = new Runnable() {
+
+        @Override
+        public void run() {
+            indexNextBlock();
+        }
+    };
+
+    private SearchIndex(SyntaxDocument doc, int blockSize, int capacity) {
+        super(Math.max(capacity, 4));
+        this.doc = doc;
+        this.blockSize = blockSize;
+        starts = new int[gapLength];
+        grams = new long[gapLength][];
+        segment.setPartialReturn(true);
+    }
+
+    /**
+     * Creates the index of a document of the given length, with all blocks
+     * still to be indexed.  Returns null if the trigram sets do not fit in
+     * limit bytes, even with the largest blocks.
+     */
+    static SearchIndex create(SyntaxDocument doc, int length, int limit) {
+        int blockSize = MIN_BLOCK;
+        while ((long) (length / blockSize + 1) * BLOCK_BYTES > limit) {
+            if (blockSize == MAX_BLOCK) {
+                return null;
+            }
+            blockSize *= 2;
+        }
+        int count = length / blockSize + 1;
+        SearchIndex index = new SearchIndex(doc, blockSize, count);
+        for (int i = 0; i < count; i++) {
+            index.starts[index.index(index.append())] = i * blockSize;
+        }
+        index.unindexed = count;
+        return index;
+    }
+
+    public int getStart(int i) {
+        return starts[index(i)] + delta(i);
+    }
+
+    /**
+     * Returns the number of blocks that are not indexed
+     */
+    public synchronized int getUnindexedCount() {
+        return unindexed;
+    }
+
+    /**
+     * Returns the index of the block that contains pos
+     */
+    private int blockAt(int pos) {
+        int lo = 1;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getStart(mid) <= pos) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - 1;
+    }
+
+    private int getEnd(int i, int length) {
+        return i + 1 < size ? getStart(i + 1) : length;
+    }
+
+    private void clearGrams(int i) {
+        int ndx = index(i);
+        if (grams[ndx] != null) {
+            grams[ndx] = null;
+            unindexed++;
+        }
+    }
+
+    /*
+     * Clears the trigrams of block b, edited at offset, and those of the
+     * block before it if its last trigrams end in the edited text
+     */
+    private void clearEdited(int b, int offset) {
+        clearGrams(b);
+        if (b > 0 && offset < getStart(b) + 2) {
+            clearGrams(b - 1);
+        }
+    }
+
+    /**
+     * Updates the blocks after an insert of length chars at offset
+     */
+    synchronized void insertUpdate(int offset, int length) {
+        int b = blockAt(offset);
+        clearEdited(b, offset);
+        splice(b + 1, b + 1, this, 0, 0, length);
+    }
+
+    /**
+     * Updates the blocks after a removal of length chars at offset.  The
+     * blocks that started in the removed text are joined with the block of
+     * offset.
+     */
+    synchronized void removeUpdate(int offset, int length) {
+        int b = blockAt(offset);
+        int last = blockAt(offset + length);
+        clearEdited(b, offset);
+        for (int i = b + 1; i <= last; i++) {
+            if (grams[index(i)] == null) {
+                unindexed--;
+            }
+        }
+        splice(b + 1, last + 1, this, 0, 0, -length);
+    }
+
+    /**
+     * Stops indexing
+     */
+    void drop() {
+        dropped = true;
+    }
+
+    /**
+     * Returns the parts of the document that the matches of pattern are in,
+     * as the start and end of each, in document order.  Returns null if they
+     * can be anywhere: the pattern has no literal of at least 3 chars that
+     * all matches contain, or the document is not indexed yet.
+     *
+     * Matches of a literal pattern are in the ranges.  Those of a regular
+     * expression are in the lines of the ranges, as only expressions that
+     * cannot match a new line are narrowed.  So the pattern finds the same
+     * matches in each of the ranges, with transparent bounds, as it finds
+     * in the whole text, see {@link #find(Matcher, int[], int)}.
+     *
+     * Starts indexing the blocks that need it.  Must be called under the
+     * read lock of the document.
+     */
+    synchronized int[] getRanges(Pattern pattern) {
+        if (unindexed > 0) {
+            schedule();
+        }
+        if (unindexed == size) {
+            return null;
+        }
+        boolean lines = (pattern.flags() & Pattern.LITERAL) == 0;
+        String literal = lines ? getRequiredLiteral(pattern) : pattern.pattern();
+        if (literal == null || literal.length() < 3
+                || (pattern.flags() & (Pattern.CANON_EQ | Pattern.UNICODE_CASE | Pattern.COMMENTS)) != 0) {
+            return null;
+        }
+        int m = literal.length();
+        int[] bits = new int[Math.min(m - 2, MAX_QUERY_GRAMS)];
+        for (int j = 0; j < bits.length; j++) {
+            bits[j] = hash(literal.charAt(j), literal.charAt(j + 1), literal.charAt(j + 2));
+        }
+        int length = doc.getLength();
+        int[] ranges = new int[16];
+        int n = 0;
+        for (int b = 0; b < size; b++) {
+            int start = getStart(b);
+            int end = getEnd(b, length);
+            if (start == end || !hasAll(b, end + m - 3, bits)) {
+                continue;
+            }
+            // the occurrences that start in this block
+            int rangeStart = start;
+            int rangeEnd = Math.min(end + m - 1, length);
+            if (lines) {
+                rangeStart = doc.getLineStartOffset(rangeStart);
+                rangeEnd = doc.getLineEndOffset(Math.max(rangeStart, rangeEnd - 1));
+            }
+            if (n > 0 && rangeStart <= ranges[2 * n - 1]) {
+                ranges[2 * n - 1] = Math.max(ranges[2 * n - 1], rangeEnd);
+            } else {
+                if (2 * n == ranges.length) {
+                    ranges = Arrays.copyOf(ranges, 2 * ranges.length);
+                }
+                ranges[2 * n] = rangeStart;
+                ranges[2 * n + 1] = rangeEnd;
+                n++;
+            }
+        }
+        return Arrays.copyOf(ranges, 2 * n);
+    }
+
+    /*
+     * Returns true if each of the given trigrams is in block b, or in one of
+     * the blocks after it that start at or before last.  Blocks that are not
+     * indexed have all trigrams.
+     */
+    private boolean hasAll(int b, int last, int[] bits) {
+        int c = b;
+        while (c + 1 < size && getStart(c + 1) <= last) {
+            c++;
+        }
+        for (int bit : bits) {
+            boolean found = false;
+            for (int i = b; i <= c && !found; i++) {
+                long[] set = grams[index(i)];
+                found = set == null || (set[bit >>> 6] & (1L << bit)) != 0;
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the first match of matcher that starts at or after from, and
+     * only looks for it in the given ranges of the text of the matcher, as
+     * returned by {@link SyntaxDocument#getSearchRanges(Pattern)}.  The
+     * matcher must be over the whole text of the document.  Like
+     * matcher.find(from) if ranges is null.
+     */
+    public static boolean find(Matcher matcher, int[] ranges, int from) {
+        if (ranges == null) {
+            return matcher.find(from);
+        }
+        matcher.useTransparentBounds(true);
+        matcher.useAnchoringBounds(false);
+        // the first range that ends after from
+        int lo = 0;
+        int hi = ranges.length / 2;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ranges[2 * mid + 1] <= from) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < ranges.length / 2; i++) {
+            matcher.region(Math.max(ranges[2 * i], from), ranges[2 * i + 1]);
+            if (matcher.find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the longest literal that every match of a regular expression
+     * contains, or null if there is none, or if the expression could match a
+     * new line.  Only the literal chars outside of groups and classes are
+     * looked at, and expressions with alternatives at the top level or
+     * with inline flags are not narrowed.
+     */
+    static String getRequiredLiteral(Pattern pattern) {
+        if ((pattern.flags() & Pattern.DOTALL) != 0) {
+            return null;
+        }
+        String p = pattern.pattern();
+        StringBuilder run = new StringBuilder();
+        String best = "";
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = 0; i < p.length(); i++) {
+            char c = p.charAt(i);
+            // the literal char at i, or -1 if this is not one
+            int literal = -1;
+            if (c == '\\') {
+                if (++i == p.length()) {
+                    return null;
+                }
+                char e = p.charAt(i);
+                if ("nrRsWDHvuxcpPXNQ0".indexOf(e) >= 0) {
+                    // may match a new line
+                    return null;
+                } else if (e == 't') {
+                    literal = '\t';
+                } else if (!Character.isLetterOrDigit(e)) {
+                    literal = e;
+                } else if (e == 'k') {
+                    // a named back reference
+                    i = p.indexOf('>', i);
+                    if (i < 0) {
+                        return null;
+                    }
+                }
+            } else if (c == '\n' || c == '\r') {
+                return null;
+            } else if (inClass) {
+                if (c == ']') {
+                    inClass = false;
+                } else if (c == '[') {
+                    // a nested class
+                    return null;
+                }
+            } else if (c == '[') {
+                if (i + 1 < p.length() && p.charAt(i + 1) == '^') {
+                    return null;
+                }
+                inClass = true;
+                // a ] right after [ is a char of the class
+                if (i + 1 < p.length() && p.charAt(i + 1) == ']') {
+                    i++;
+                }
+            } else if (c == '(') {
+                if (i + 1 < p.length() && p.charAt(i + 1) == '?') {
+                    char d = i + 2 < p.length() ? p.charAt(i + 2) : 0;
+                    if (":=!<>".indexOf(d) < 0 || d == 0) {
+                        // inline flags
+                        return null;
+                    }
+                }
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|') {
+                if (depth == 0) {
+                    return null;
+                }
+            } else if (".^$?*+{}]".indexOf(c) < 0) {
+                literal = c;
+            }
+            if (depth > 0 || inClass) {
+                literal = -1;
+            }
+            if (literal >= 0) {
+                char next = i + 1 < p.length() ? p.charAt(i + 1) : 0;
+                if (next == '?' || next == '*' || next == '{') {
+                    // the char is optional
+                    literal = -1;
+                } else {
+                    run.append((char) literal);
+                    if (next == '+') {
+                        // it is there, but may be followed by more of it
+                        literal = -1;
+                    }
+                }
+            }
+            if (literal < 0 && run.length() > 0) {
+                if (run.length() > best.length()) {
+                    best = run.toString();
+                }
+                run.setLength(0);
+            }
+        }
+        if (run.length() > best.length()) {
+            best = run.toString();
+        }
+        return best.isEmpty() ? null : best;
+    }
+
+    /*
+     * Returns the bit of a trigram in the trigram sets
+     */
+    private static int hash(char c0, char c1, char c2) {
+        int h = (Character.toLowerCase(c0) * 31 + Character.toLowerCase(c1)) * 31
+                + Character.toLowerCase(c2);
+        return (h * 0x9e3779b1) >>> (32 - GRAM_HASH_BITS);
+    }
+
+    /*
+     * Starts the indexer, if not already running.  Called with the lock of
+     * this index.
+     */
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            getIndexer().execute(indexBlock);
+        }
+    }
+
+    /*
+     * Indexes the next block that needs it under the read lock of the
+     * document, then reschedules itself to let edits in
+     */
+    private void indexNextBlock() {
+        if (dropped) {
+            return;
+        }
+        doc.render(new Runnable() {
+
+            @Override
+            public void run() {
+                synchronized (SearchIndex.this) {
+                    scheduled = false;
+                    if (unindexed == 0) {
+                        return;
+                    }
+                    int b = cursor < size ? cursor : 0;
+                    while (grams[index(b)] != null) {
+                        b = b + 1 < size ? b + 1 : 0;
+                    }
+                    int length = doc.getLength();
+                    int start = getStart(b);
+                    int end = getEnd(b, length);
+                    if (end - start > 2 * blockSize) {
+                        split(b, start, end);
+                        end = getEnd(b, length);
+                    }
+                    grams[index(b)] = indexText(start, end, length);
+                    unindexed--;
+                    cursor = b + 1;
+                    if (unindexed > 0) {
+                        schedule();
+                    }
+                }
+            }
+        });
+    }
+
+    /*
+     * Cuts block b, from start to end, in blocks of blockSize
+     */
+    private void split(int b, int start, int end) {
+        int count = (end - start) / blockSize;
+        SearchIndex pieces = new SearchIndex(doc, blockSize, count);
+        for (int i = 0; i < count; i++) {
+            pieces.starts[pieces.index(pieces.append())] = start + i * blockSize;
+        }
+        splice(b, b + 1, pieces, 0, count, 0);
+        unindexed += count - 1;
+    }
+
+    /*
+     * Returns the set of the trigrams that start from start to end
+     */
+    private long[] indexText(int start, int end, int length) {
+        long[] set = new long[GRAM_BITS / 64];
+        try {
+            int pos = start;
+            int last = Math.min(end + 2, length);
+            char c0 = 0;
+            char c1 = 0;
+            while (pos < last) {
+                doc.getText(pos, last - pos, segment);
+                for (int i = 0; i < segment.count; i++, pos++) {
+                    char c2 = segment.array[segment.offset + i];
+                    if (pos >= start + 2) {
+                        int bit = hash(c0, c1, c2);
+                        set[bit >>> 6] |= 1L << bit;
+                    }
+                    c0 = c1;
+                    c1 = c2;
+                }
+            }
+        } catch (BadLocationException ex) {
+            Logger.getLogger(SearchIndex.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return set;
+    }
+
+    private static synchronized ExecutorService getIndexer() {
+        if (indexer == null) {
+            indexer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "jsyntaxpane-search-index");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+        }
+        return indexer;
+    }
+
+    @Override
+    void resize(int capacity) {
+        starts = Arrays.copyOf(starts, capacity);
+        grams = Arrays.copyOf(grams, capacity);
+    }
+
+    @Override
+    void move(int from, int to, int n) {
+        System.arraycopy(starts, from, starts, to, n);
+        System.arraycopy(grams, from, grams, to, n);
+    }
+
+    @Override
+    void shift(int i, int n, int shift) {
+        for (int k = i; k < i + n; k++) {
+            starts[k] += shift;
+        }
+    }
+
+    @Override
+    void copyFrom(int i, GapBuffer source, int index) {
+        SearchIndex s = (SearchIndex) source;
+        starts[i] = s.getStart(index);
+        grams[i] = s.grams[s.index(index)];
+    }
+
+    @Override
+    public String toString() {
+        return "SearchIndex(" + size + " blocks of " + blockSize + " chars, "
+                + unindexed + " not indexed)";
+    }
+}
@@ -14,27 +14,40 @@
  */
 package jsyntaxpane;
 
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
-import java.util.Vector;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.event.DocumentEvent;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
 import javax.swing.text.Element;
 import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
 import javax.swing.text.Segment;
-import javax.swing.text.StyleConstants;
 
 import org.netbeans.modules.editor.NbEditorDocument;
 
@@ -48,18 +61,86 @@ import org.netbeans.modules.editor.NbEditorDocument;
 public class SyntaxDocument extends NbEditorDocument {
     public static final String CAN_UNDO = "can-undo";
     public static final String CAN_REDO = "can-redo";
+    /**
+     * Property fired with a new {@link TokenSnapshot} each time the background
+     * parser has caught up with the edits, progressive parsing has lexed
+     * another part of the document, or an edit made of several changes, like
+     * a batch, a replace or an undo, has been lexed.  Always fired on the
+     * event dispatch thread.
+     */
+    public static final String TOKENS = "tokens";
+    /**
+     * Property fired with the {@link Annotations} of the document when
+     * annotations were added or removed.  Always fired on the event dispatch
+     * thread, once for all changes made in the same event.
+     */
+    public static final String ANNOTATIONS = "annotations";
 
 	Lexer lexer;
-	List<Token> tokens;
+	TokenBuffer tokens;
+	CheckpointBuffer checkpoints;
 	CompoundUndoManager undo;
+	boolean incrementalParsing = false;
+	volatile boolean asynchronousParsing = false;
+	// incremented by every edit
+	volatile int version = 0;
+	// the edits the background parser has not caught up with yet,
+	// as {version, offset, oldEnd, newEnd}
+	private final List<int[]> pendingEdits = new ArrayList<int[]>();
+	// the last tokens lexed by the background parser, only used on its thread
+	private TokenSnapshot parsed;
+	// nesting depth of bulk edits, and the text they changed
+	private int bulkDepth;
+	private DamageBuffer bulkDamage;
+	// nesting depth of batches, see beginBatch
+	private int batchDepth;
+	// the range whose tokens were changed by the last edit
+	private int damageStart;
+	private int damageEnd;
+	private int publishedVersion = -1;
+	private final AtomicBoolean parseScheduled = new AtomicBoolean();
+	private final AtomicBoolean reparseAll = new AtomicBoolean();
+	private final Runnable parseJob = new Runnable() {
+
+		@Override
+		public void run() {
+			parseScheduled.set(false);
+			try {
+				parseInBackground();
+			} catch (RuntimeException ex) {
+				log.log(Level.SEVERE, null, ex);
+			}
+		}
+	};
+	// the single thread shared by all documents that are parsed in the background
+	private static ExecutorService parser;
+	boolean progressiveParsing = false;
+	// end of the lexed part while the document is parsed progressively,
+	// -1 once all of it is lexed
+	int lexedEnd = -1;
+	private Timer progressTimer;
+	// end of the part past lexedEnd that the views painted, which is lexed next
+	private int wantedEnd;
+	// guessed tokens of the visible part of a read only document
+	private TokenBuffer provisional;
+	private int provisionalStart;
+	private int provisionalEnd;
 
     private final PropertyChangeSupport propSupport;
+    private final Annotations annotations;
+    // the trigram index, created when first used if the limit is not 0
+    private volatile SearchIndex searchIndex;
+    private int searchIndexLimit;
     private boolean canUndoState = false;
     private boolean canRedoState = false;
     
-    private AbstractElement defaultRoot;
-    private Vector<Element> added = new Vector<Element>();
-    private Vector<Element> removed = new Vector<Element>();
+    private Element defaultRoot;
+    // the starts of the lines, which the root element is a view of
+    private LineIndex lineIndex;
+    // the line starts of an editable document
+    private LineStartBuffer lines;
+    // the content of a read only document, or null
+    private MappedContent mappedContent;
     private transient Segment s;
 
     /**
@@ -83,8 +164,79 @@ public class SyntaxDocument extends NbEditorDocument {
         this.lexer  = lexer;
         undo        = new CompoundUndoManager(this);    // Listen for undo and redo events
         propSupport = new PropertyChangeSupport(this);
+        annotations = new Annotations(this, propSupport);
         putProperty(tabSizeAttribute, Integer.valueOf(8));
-        defaultRoot = createDefaultRoot();
+        lines = new LineStartBuffer(16);
+        lines.add(0);
+        lineIndex = lines;
+        defaultRoot = new LineRootElement(this, lines);
+    }
+
+    /**
+     * Creates a read only document showing the given content.  Only the
+     * lines that are painted are read and lexed, so large files can be shown
+     * with little memory.  The lexer must be a {@link RestartableLexer} to
+     * color the text.  The lines are lexed on their own, so a line inside a
+     * multi-line token, like a long comment, may be colored wrongly.
+     */
+    public SyntaxDocument(Lexer lexer, String mimeType, MappedContent content) {
+        this(lexer, mimeType);
+        mappedContent = content;
+        lines = null;
+        lineIndex = content;
+        defaultRoot = new LineRootElement(this, content);
+        parse();
+    }
+
+    /**
+     * Returns true if this document shows a {@link MappedContent}, and cannot
+     * be changed
+     */
+    public boolean isReadOnly() {
+        return mappedContent != null;
+    }
+
+    @Override
+    public int getLength() {
+        return mappedContent == null ? super.getLength() : mappedContent.length() - 1;
+    }
+
+    @Override
+    public String getText(int offset, int length) throws BadLocationException {
+        if (mappedContent == null) {
+            return super.getText(offset, length);
+        }
+        checkRange(offset, length);
+        return mappedContent.getString(offset, length);
+    }
+
+    @Override
+    public void getText(int offset, int length, Segment txt) throws BadLocationException {
+        if (mappedContent == null) {
+            super.getText(offset, length, txt);
+            return;
+        }
+        checkRange(offset, length);
+        mappedContent.getChars(offset, length, txt);
+    }
+
+    private void checkRange(int offset, int length) throws BadLocationException {
+        if (length < 0 || offset < 0 || offset + length > getLength()) {
+            throw new BadLocationException("Invalid range", offset);
+        }
+    }
+
+    @Override
+    public Position createPosition(int offs) throws BadLocationException {
+        return mappedContent == null ? super.createPosition(offs) : mappedContent.createPosition(offs);
+    }
+
+    @Override
+    public void remove(int offs, int len) throws BadLocationException {
+        if (mappedContent != null) {
+            throw new BadLocationException("Read only document", offs);
+        }
+        super.remove(offs, len);
     }
 
     /**
@@ -122,6 +274,9 @@ public class SyntaxDocument extends NbEditorDocument {
                 str = filtered.toString();
             }
         }
+        if (mappedContent != null) {
+            throw new BadLocationException("Read only document", offs);
+        }
         super.insertString(offs, str, a);
     }
 
@@ -135,21 +290,6 @@ public class SyntaxDocument extends NbEditorDocument {
         return defaultRoot;
     }
 
-    /**
-     * Creates the root element to be used to represent the
-     * default document structure.
-     *
-     * @return the element base
-     */
-    protected AbstractElement createDefaultRoot() {
-        BranchElement map = (BranchElement) createBranchElement(null, null);
-        Element line = createLeafElement(map, null, 0, 1);
-        Element[] lines = new Element[1];
-        lines[0] = line;
-        map.replace(0, 0, lines);
-        return map;
-    }
-
     /**
      * Get the paragraph element containing the given position.  Since this
      * document only models lines, it returns the line instead.
@@ -162,214 +302,1030 @@ public class SyntaxDocument extends NbEditorDocument {
     /**
      * Updates document structure as a result of text insertion.  This
      * will happen within a write lock.  Since this document simply
-     * maps out lines, we refresh the line map.
+     * maps out lines, we update the line starts.
      *
      * @param chng the change event describing the dit
      * @param attr the set of attributes for the inserted text
      */
     protected void insertUpdate(DefaultDocumentEvent chng, AttributeSet attr) {
-        removed.removeAllElements();
-        added.removeAllElements();
-        BranchElement lineMap = (BranchElement) getDefaultRootElement();
-        int offset = chng.getOffset();
-        int length = chng.getLength();
-        if (offset > 0) {
-          offset -= 1;
-          length += 1;
-        }
-        int index = lineMap.getElementIndex(offset);
-        Element rmCandidate = lineMap.getElement(index);
-        int rmOffs0 = rmCandidate.getStartOffset();
-        int rmOffs1 = rmCandidate.getEndOffset();
-        int lastOffset = rmOffs0;
         try {
             if (s == null) {
                 s = new Segment();
             }
-            getContent().getChars(offset, length, s);
-            boolean hasBreaks = false;
-            for (int i = 0; i < length; i++) {
-                char c = s.array[s.offset + i];
-                if (c == '\n') {
-                    int breakOffset = offset + i + 1;
-                    added.addElement(createLeafElement(lineMap, null, lastOffset, breakOffset));
-                    lastOffset = breakOffset;
-                    hasBreaks = true;
-                }
-            }
-            if (hasBreaks) {
-                removed.addElement(rmCandidate);
-                if ((offset + length == rmOffs1) && (lastOffset != rmOffs1) &&
-                    ((index+1) < lineMap.getElementCount())) {
-                    Element e = lineMap.getElement(index+1);
-                    removed.addElement(e);
-                    rmOffs1 = e.getEndOffset();
-                }
-                if (lastOffset < rmOffs1) {
-                    added.addElement(createLeafElement(lineMap, null, lastOffset, rmOffs1));
-                }
-
-                Element[] aelems = new Element[added.size()];
-                added.copyInto(aelems);
-                Element[] relems = new Element[removed.size()];
-                removed.copyInto(relems);
-                ElementEdit ee = new ElementEdit(lineMap, index, relems, aelems);
-                chng.addEdit(ee);
-                lineMap.replace(index, relems.length, aelems);
-            }
-            if (isComposedTextAttributeDefined(attr)) {
-                insertComposedTextUpdate(chng, attr);
-            }
+            getContent().getChars(chng.getOffset(), chng.getLength(), s);
+            chng.addEdit(lines.insert((LineRootElement) defaultRoot, chng.getOffset(),
+                    s.array, s.offset, s.offset + s.count, getLength()));
         } catch (BadLocationException e) {
             throw new Error("Internal error: " + e.toString());
         }
         super.insertUpdate(chng, attr);
     }
-    
-    static boolean isComposedTextAttributeDefined(AttributeSet as) {
-        return ((as != null) &&
-                (as.isDefined(StyleConstants.ComposedTextAttribute)));
-    }
 
     /**
      * Updates any document structure as a result of text removal.
      * This will happen within a write lock. Since the structure
-     * represents a line map, this just checks to see if the
-     * removal spans lines.  If it does, the two lines outside
-     * of the removal area are joined together.
+     * represents a line map, this removes the starts of the lines
+     * joined by the removal.
      *
      * @param chng the change event describing the edit
      */
     protected void removeUpdate(DefaultDocumentEvent chng) {
-        removed.removeAllElements();
-        BranchElement map = (BranchElement) getDefaultRootElement();
-        int offset = chng.getOffset();
-        int length = chng.getLength();
-        int line0 = map.getElementIndex(offset);
-        int line1 = map.getElementIndex(offset + length);
-        if (line0 != line1) {
-            // a line was removed
-            for (int i = line0; i <= line1; i++) {
-                removed.addElement(map.getElement(i));
-            }
-            int p0 = map.getElement(line0).getStartOffset();
-            int p1 = map.getElement(line1).getEndOffset();
-            Element[] aelems = new Element[1];
-            aelems[0] = createLeafElement(map, null, p0, p1);
-            Element[] relems = new Element[removed.size()];
-            removed.copyInto(relems);
-            ElementEdit ee = new ElementEdit(map, line0, relems, aelems);
-            chng.addEdit(ee);
-            map.replace(line0, relems.length, aelems);
-        } else {
-            //Check for the composed text element
-            Element line = map.getElement(line0);
-            if (!line.isLeaf()) {
-                Element leaf = line.getElement(line.getElementIndex(offset));
-                if (isComposedTextElement(leaf)) {
-                    Element[] aelem = new Element[1];
-                    aelem[0] = createLeafElement(map, null,
-                        line.getStartOffset(), line.getEndOffset());
-                    Element[] relem = new Element[1];
-                    relem[0] = line;
-                    ElementEdit ee = new ElementEdit(map, line0, relem, aelem);
-                    chng.addEdit(ee);
-                    map.replace(line0, 1, aelem);
-                }
-            }
-        }
+        chng.addEdit(lines.remove((LineRootElement) defaultRoot, chng.getOffset(),
+                chng.getLength(), getLength()));
         super.removeUpdate(chng);
     }
-    
-    static boolean isComposedTextElement(Element elem) {
-        AttributeSet as = elem.getAttributes();
-        return isComposedTextAttributeDefined(as);
-    }
 
 
-    //
-    // Inserts the composed text of an input method. The line element
-    // where the composed text is inserted into becomes an branch element
-    // which contains leaf elements of the composed text and the text
-    // backing store.
-    //
-    private void insertComposedTextUpdate(DefaultDocumentEvent chng, AttributeSet attr) {
-        added.removeAllElements();
-        BranchElement lineMap = (BranchElement) getDefaultRootElement();
-        int offset = chng.getOffset();
-        int length = chng.getLength();
-        int index = lineMap.getElementIndex(offset);
-        Element elem = lineMap.getElement(index);
-        int elemStart = elem.getStartOffset();
-        int elemEnd = elem.getEndOffset();
-        BranchElement[] abelem = new BranchElement[1];
-        abelem[0] = (BranchElement) createBranchElement(lineMap, null);
-        Element[] relem = new Element[1];
-        relem[0] = elem;
-        if (elemStart != offset)
-            added.addElement(createLeafElement(abelem[0], null, elemStart, offset));
-        added.addElement(createLeafElement(abelem[0], attr, offset, offset+length));
-        if (elemEnd != offset+length)
-            added.addElement(createLeafElement(abelem[0], null, offset+length, elemEnd));
-        Element[] alelem = new Element[added.size()];
-        added.copyInto(alelem);
-        ElementEdit ee = new ElementEdit(lineMap, index, relem, abelem);
-        chng.addEdit(ee);
-
-        abelem[0].replace(0, 0, alelem);
-        lineMap.replace(index, 1, abelem);
-    }
+	/*
+	 * Parse the entire document and return list of tokens that do not already
+	 * exist in the tokens list.  There may be overlaps, and replacements,
+	 * which we will cleanup later.
+	 *
+	 * @return list of tokens that do not exist in the tokens field
+	 */
+	private void parse() {
+		// if we have no lexer, then we must have no tokens...
+		if (lexer == null) {
+			tokens = null;
+			checkpoints = null;
+			return;
+		}
+		lexedEnd = -1;
+		wantedEnd = 0;
+		provisional = null;
+		if (mappedContent != null) {
+			// read only documents only lex the lines that are painted
+			tokens = new TokenBuffer();
+			checkpoints = new CheckpointBuffer(4);
+			if (lexer instanceof RestartableLexer) {
+				lexedEnd = 0;
+			}
+			return;
+		}
+		if (asynchronousParsing) {
+			reparseAll.set(true);
+			scheduleParse();
+			return;
+		}
+		synchronized (lexer) {
+			if (lexer instanceof RestartableLexer) {
+				RestartableLexer rl = (RestartableLexer) lexer;
+				if (progressiveParsing && getLength() > PROGRESSIVE_THRESHOLD) {
+					// lex the first screens right away, and the rest when idle
+					tokens = new TokenBuffer(PROGRESSIVE_STEP / 8);
+					checkpoints = new CheckpointBuffer(PROGRESSIVE_STEP / 64);
+					lexedEnd = relex(rl, tokens, checkpoints, -1, 0, 0, 0, 0, PROGRESSIVE_STEP).lexedEnd;
+					if (lexedEnd >= 0) {
+						getProgressTimer().start();
+					}
+					return;
+				}
+				TokenSnapshot snapshot = relex(rl, null, null, -1, 0, 0, 0, 0, Integer.MAX_VALUE);
+				tokens = snapshot.tokens;
+				checkpoints = snapshot.checkpoints;
+				return;
+			}
+			List<Token> toks = new ArrayList<Token>(getLength() / 10);
+			long ts = System.nanoTime();
+			int len = getLength();
+			try {
+				Segment seg = new Segment();
+				getText(0, getLength(), seg);
+				lexer.parse(seg, 0, toks);
+			} catch (BadLocationException ex) {
+				log.log(Level.SEVERE, null, ex);
+			} finally {
+				if (log.isLoggable(Level.FINEST)) {
+					log.finest(String.format("Parsed %d in %d ms, giving %d tokens\n",
+						len, (System.nanoTime() - ts) / 1000000, toks.size()));
+				}
+				tokens = toBuffer(toks, toks.size());
+			}
+		}
+	}
+
+	/*
+	 * Re-lexes only the part of the document damaged by the given edit, or
+	 * queues the edit for the background parser.
+	 */
+	private void parse(DocumentEvent e) {
+		version++;
+		int offset = e.getOffset();
+		int delta = 0;
+		int oldEnd = offset;
+		int newEnd = offset;
+		if (e.getType() == DocumentEvent.EventType.INSERT) {
+			delta = e.getLength();
+			newEnd += delta;
+		} else if (e.getType() == DocumentEvent.EventType.REMOVE) {
+			delta = -e.getLength();
+			oldEnd -= delta;
+		} else {
+			oldEnd += e.getLength();
+			newEnd = oldEnd;
+		}
+		if (asynchronousParsing) {
+			damageStart = offset;
+			damageEnd = newEnd;
+			if (lexer != null) {
+				synchronized (pendingEdits) {
+					pendingEdits.add(new int[] { version, offset, oldEnd, newEnd });
+				}
+				scheduleParse();
+			}
+			return;
+		}
+		damageStart = offset;
+		damageEnd = newEnd;
+		if (bulkDepth > 0) {
+			// lexed once the bulk edit ends
+			bulkDamage.add(offset, oldEnd, newEnd);
+			cutBulkEdit(offset, oldEnd, newEnd);
+			return;
+		}
+		TokenSnapshot snapshot = parse(offset, oldEnd, newEnd);
+		if (snapshot != null) {
+			damageStart = Math.min(damageStart, snapshot.damageStart);
+			damageEnd = Math.max(damageEnd, snapshot.damageEnd);
+		}
+	}
+
+	/*
+	 * Drops the old tokens and checkpoints of the text changed by an edit of
+	 * a bulk edit, and shifts the ones after it, so that the listeners told
+	 * about the edit see tokens that match the text.  The changed text has
+	 * no tokens, and is painted as plain text, until it is lexed when the
+	 * bulk edit ends.
+	 */
+	private void cutBulkEdit(int offset, int oldEnd, int newEnd) {
+		if (!incrementalParsing || lexer == null || tokens == null) {
+			return;
+		}
+		int delta = newEnd - oldEnd;
+		provisional = null;
+		tokens.splice(tokens.indexAfter(offset), tokens.indexFrom(oldEnd), EMPTY_TOKENS, 0, 0, delta);
+		if (checkpoints != null) {
+			// the checkpoints kept after the edit are only compared with new
+			// ones, and must not be restarted from by the ranges of the edit
+			int from = checkpoints.indexAt(offset) + 1;
+			int to = from;
+			while (to < checkpoints.size() && (checkpoints.getOffset(to) < oldEnd ||
+				checkpoints.getLookahead(to) <= oldEnd)) {
+				to++;
+			}
+			checkpoints.splice(from, to, EMPTY_CHECKPOINTS, 0, 0, delta);
+		}
+		if (lexedEnd > offset) {
+			lexedEnd = lexedEnd >= oldEnd ? lexedEnd + delta : newEnd;
+		}
+	}
+
+	/**
+	 * Returns the start of the range whose tokens were changed by the last
+	 * edit.  The views read it while they are told about the edit, to
+	 * repaint the lines whose colors changed.
+	 */
+	int getDamageStart() {
+		return damageStart;
+	}
+
+	/**
+	 * Returns the end of the range whose tokens were changed by the last edit
+	 */
+	int getDamageEnd() {
+		return damageEnd;
+	}
+
+	/*
+	 * Re-lexes the text damaged by replacing [offset, oldEnd) with
+	 * [offset, newEnd), with the document lock held
+	 */
+	private TokenSnapshot parse(int offset, int oldEnd, int newEnd) {
+		return parse(offset, oldEnd, newEnd, null, 0);
+	}
+
+	/*
+	 * Re-lexes the text damaged by replacing [offset, oldEnd) with
+	 * [offset, newEnd), and by the ranges of later that lexing runs into,
+	 * starting with range next.  Returns the range whose tokens were lexed
+	 * again, or null if that is not known.
+	 */
+	private TokenSnapshot parse(int offset, int oldEnd, int newEnd, DamageBuffer later, int next) {
+		int delta = newEnd - oldEnd;
+		if (!incrementalParsing || lexer == null || tokens == null ||
+			(progressiveParsing && Math.max(oldEnd, newEnd) - offset > PROGRESSIVE_THRESHOLD)) {
+			parse();
+			return new TokenSnapshot(version, tokens == null ? new TokenBuffer() : tokens, checkpoints,
+				0, getLength(), lexedEnd);
+		}
+		provisional = null;
+		synchronized (lexer) {
+			if (lexer instanceof RestartableLexer) {
+				if (lexedEnd < 0) {
+					return relex((RestartableLexer) lexer, tokens, checkpoints, -1, offset, newEnd, delta,
+						Integer.MAX_VALUE, later, next);
+				}
+				// the text past the last checkpoint has not been lexed yet
+				int last = checkpoints.size() - 1;
+				if (last >= 0 && offset >= checkpoints.getLookahead(last)) {
+					return null;
+				}
+				TokenSnapshot snapshot = relex((RestartableLexer) lexer, tokens, checkpoints, -1, offset,
+					newEnd, delta, Math.max(newEnd, lexedEnd + delta), later, next);
+				lexedEnd = snapshot.lexedEnd;
+				return snapshot;
+			} else {
+				return relexWindows(offset, newEnd, delta, later, next);
+			}
+		}
+	}
+
+	/*
+	 * Re-lexes the damaged part of the document with a Lexer that is not a
+	 * RestartableLexer.  Lexing restarts at the beginning of the edited line,
+	 * or earlier if a token overlaps the line start, and stops as soon as a
+	 * new token lines up with an old one past the edit.  The old tokens from
+	 * there on are kept and shifted by the length of the edit.
+	 *
+	 * The lexer is fed growing windows of the document, starting with the
+	 * edited line, so the cost of an edit depends on the size of the damage
+	 * rather than the size of the document.
+	 *
+	 * If the new tokens reach the ranges of later, starting with range next,
+	 * before lining up, those ranges are lexed as part of the edit.
+	 */
+	private TokenSnapshot relexWindows(int offset, int newEnd, int delta, DamageBuffer later, int next) {
+		long ts = System.nanoTime();
+		int len = getLength();
+		int restart = getLineStartOffset(offset);
+		// the first old token that is not completely before the restart
+		// line, or empty at its start
+		int first = Math.min(tokens.indexAfter(restart), tokens.indexFrom(restart));
+		if (first < tokens.size() && tokens.getStart(first) < restart) {
+			restart = tokens.getStart(first);
+		}
+		int windowEnd = Math.min(len, Math.max(getLineEndOffset(newEnd),
+			restart + MIN_RELEX_WINDOW));
+		List<Token> toks = new ArrayList<Token>();
+		Segment seg = new Segment();
+		try {
+			while (true) {
+				toks.clear();
+				getText(restart, windowEnd - restart, seg);
+				lexer.parse(seg, restart, toks);
+				int j = first;
+				int end = newEnd;
+				int shift = delta;
+				int n = next;
+				for (int k = 0; k < toks.size(); k++) {
+					Token t = toks.get(k);
+					while (later != null && n < later.size() && t.start >= later.getStart(n)) {
+						end = later.getEnd(n);
+						n++;
+					}
+					if (t.start < end) {
+						continue;
+					}
+					// tokens touching the window end may be cut short
+					if (windowEnd < len && t.end() >= windowEnd) {
+						break;
+					}
+					while (j < tokens.size() && tokens.getStart(j) + shift < t.start) {
+						j++;
+					}
+					if (j == tokens.size()) {
+						break;
+					}
+					if (tokens.getStart(j) + shift == t.start && tokens.getLength(j) == t.length &&
+						tokens.getType(j) == t.type && tokens.getPairValue(j) == t.pairValue) {
+						tokens.splice(first, j, toBuffer(toks, k), 0, k, shift);
+						return new TokenSnapshot(version, tokens, null, restart, t.start, -1);
+					}
+				}
+				if (windowEnd == len) {
+					tokens.splice(first, tokens.size(), toBuffer(toks, toks.size()), 0, toks.size(), delta);
+					return new TokenSnapshot(version, tokens, null, restart, len, -1);
+				}
+				windowEnd = Math.min(len, restart + 2 * (windowEnd - restart));
+			}
+		} catch (BadLocationException ex) {
+			log.log(Level.SEVERE, null, ex);
+			parse();
+			return null;
+		} finally {
+			if (log.isLoggable(Level.FINEST)) {
+				log.finest(String.format("Re-parsed %d from %d in %d ms\n",
+					windowEnd - restart, restart, (System.nanoTime() - ts) / 1000000));
+			}
+		}
+	}
+
+	/*
+	 * Lexes with a RestartableLexer, starting at the last checkpoint before
+	 * offset, and saves a new checkpoint at the first token boundary of
+	 * every line.  Once a new checkpoint past newEnd is equal to an old one
+	 * shifted by delta, the lexer would produce the old tokens again, so
+	 * lexing stops there and the old tokens and checkpoints are kept.
+	 * The given lists are updated in place, and the returned snapshot holds
+	 * the splice that updated them.
+	 *
+	 * Without old tokens, this lexes the whole document.
+	 *
+	 * If lexing has not stopped by the first checkpoint at or past stopAt,
+	 * it stops there and the old tokens after it are dropped.  The returned
+	 * snapshot then tells where the lexed part of the document ends.
+	 *
+	 * With a version of -1 the caller holds the document lock.  Otherwise
+	 * the text is read under the read lock, and a CancellationException is
+	 * thrown as soon as the document is no longer at that version.
+	 */
+	private TokenSnapshot relex(RestartableLexer rl, TokenBuffer tokens, CheckpointBuffer checkpoints,
+		int version, int offset, int oldEnd, int newEnd, int delta, int stopAt) {
+		return relex(rl, tokens, checkpoints, version, offset, newEnd, delta, stopAt, null, 0);
+	}
+
+	/*
+	 * Like relex above, for the edit and the ranges of later, starting with
+	 * range next.  Once lexing reaches the start of such a range without
+	 * having caught up, the range becomes part of the edit: lexing cannot
+	 * stop before its end.  The old tokens of the ranges have already been
+	 * cut out, and the ones after them shifted, see cutBulkEdit.
+	 */
+	private TokenSnapshot relex(RestartableLexer rl, TokenBuffer tokens, CheckpointBuffer checkpoints,
+		int version, int offset, int newEnd, int delta, int stopAt, DamageBuffer later, int next) {
+		long ts = System.nanoTime();
+		boolean full = tokens == null || checkpoints == null;
+		int cp = full ? -1 : checkpoints.indexAt(offset);
+		int restart = 0;
+		LexerState state = null;
+		// how far the text was read to reach the last checkpoint
+		int lookahead = 0;
+		if (cp >= 0) {
+			restart = checkpoints.getOffset(cp);
+			state = checkpoints.getState(cp);
+			lookahead = checkpoints.getLookahead(cp);
+		}
+		TokenBuffer toks = new TokenBuffer(full ? getLength() / 10 : 16);
+		CheckpointBuffer cps = new CheckpointBuffer(full ? getLineCount() : 4);
+		// old checkpoint we are comparing new ones against
+		int c = cp + 1;
+		// old token where the unchanged tail starts, once we have caught up
+		int tail = -1;
+		// number of new tokens, without the first one of the unchanged tail
+		int lexed = 0;
+		boolean converged = false;
+		boolean stopped = false;
+		ContentReader reader = new ContentReader(restart, version);
+		try {
+			rl.restart(reader, restart, state);
+			int nextLine = reader.lineEnd(restart);
+			while (rl.nextToken(toks)) {
+				if (converged) {
+					// the last token is the first one of the unchanged tail
+					tail = tokens.indexFrom(toks.getStart(lexed) - delta);
+					break;
+				}
+				lexed++;
+				int pos = rl.getPosition();
+				if (pos >= nextLine) {
+					LexerState s = rl.getState();
+					lookahead = Math.max(lookahead, reader.pos);
+					cps.add(pos, lookahead, s);
+					nextLine = reader.lineEnd(pos);
+					while (later != null && next < later.size() && pos >= later.getStart(next)) {
+						newEnd = later.getEnd(next);
+						next++;
+					}
+					if (!full && pos >= newEnd) {
+						while (c < checkpoints.size() && checkpoints.getOffset(c) + delta < pos) {
+							c++;
+						}
+						converged = c < checkpoints.size() &&
+							checkpoints.getOffset(c) + delta == pos &&
+							checkpoints.getState(c).equals(s);
+					}
+					if (!converged && pos >= stopAt) {
+						stopped = true;
+						break;
+					}
+				}
+			}
+			if (converged && tail < 0) {
+				tail = tokens.size();
+			}
+		} catch (IOException ex) {
+			log.log(Level.SEVERE, null, ex);
+		}
+		int damageStart = lexed == 0 ? restart : Math.min(restart, toks.getStart(0));
+		int damageEnd = converged || stopped ? cps.getOffset(cps.size() - 1)
+			: Math.max(damageStart, reader.pos - 1);
+		TokenSnapshot.Splice splice = null;
+		if (full) {
+			tokens = toks;
+			checkpoints = cps;
+		} else {
+			// the first new token may have been started before the restart
+			// position, and replaces the old one, and the empty tokens at
+			// the restart position are lexed again
+			int first = Math.min(tokens.indexAfter(damageStart), tokens.indexFrom(damageStart));
+			if (tail >= 0) {
+				splice = new TokenSnapshot.Splice(first, tail, toks, lexed, cp + 1, c + 1, cps, delta);
+			} else {
+				splice = new TokenSnapshot.Splice(first, tokens.size(), toks, lexed,
+					cp + 1, checkpoints.size(), cps, delta);
+			}
+			splice.apply(tokens, checkpoints, true);
+		}
+		if (log.isLoggable(Level.FINEST)) {
+			log.finest(String.format("Lexed from %d in %d ms, giving %d tokens\n",
+				restart, (System.nanoTime() - ts) / 1000000, lexed));
+		}
+		// the old tokens end at stopAt, unless they cover the whole document
+		int end = stopped || (converged && stopAt != Integer.MAX_VALUE)
+			? checkpoints.getOffset(checkpoints.size() - 1) : -1;
+		return new TokenSnapshot(version, tokens, checkpoints, damageStart, damageEnd, end, splice);
+	}
+
+	/*
+	 * Starts an edit made of several changes, which are only lexed once the
+	 * outermost bulk edit ends.  Called on the thread making the changes.
+	 */
+	void beginBulkEdit() {
+		if (bulkDepth++ == 0) {
+			bulkDamage = new DamageBuffer(4);
+		}
+	}
+
+	/*
+	 * Ends a bulk edit, lexing the text changed by all its edits at once.
+	 * Only the changed ranges are lexed again, from the first to the last,
+	 * so that lexing each range stops as soon as it has caught up with the
+	 * old tokens before the next one.  The tokens are changed under the
+	 * write lock, and the range whose tokens were changed by the outermost
+	 * bulk edit is published to the TOKENS listeners, as the views were not
+	 * told about it while the edits were made.
+	 */
+	void endBulkEdit() {
+		if (--bulkDepth > 0) {
+			return;
+		}
+		DamageBuffer damage = bulkDamage;
+		bulkDamage = null;
+		if (damage.isEmpty() || asynchronousParsing) {
+			return;
+		}
+		int start = damage.getStart(0);
+		int end = damage.getEnd(damage.size() - 1);
+		writeLock();
+		try {
+			if (!incrementalParsing || lexer == null || tokens == null) {
+				parse();
+				end = getLength();
+			} else {
+				int i = 0;
+				while (i < damage.size()) {
+					// the old tokens of the range were cut out by its edits
+					int newEnd = damage.getEnd(i);
+					TokenSnapshot snapshot = parse(damage.getStart(i), newEnd, newEnd, damage, i + 1);
+					i++;
+					if (snapshot == null) {
+						end = getLength();
+					} else {
+						start = Math.min(start, snapshot.damageStart);
+						end = Math.max(end, snapshot.damageEnd);
+						// the ranges lexing ran into were lexed with this one
+						while (i < damage.size() && damage.getStart(i) <= snapshot.damageEnd) {
+							i++;
+						}
+					}
+				}
+			}
+		} finally {
+			writeUnlock();
+		}
+		final TokenSnapshot snapshot = new TokenSnapshot(version,
+			tokens == null ? new TokenBuffer() : tokens, checkpoints, start, end, lexedEnd);
+		if (SwingUtilities.isEventDispatchThread()) {
+			propSupport.firePropertyChange(TOKENS, null, snapshot);
+		} else {
+			SwingUtilities.invokeLater(new Runnable() {
+
+				@Override
+				public void run() {
+					propSupport.firePropertyChange(TOKENS, null, snapshot);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Starts a batch of changes, that ends with the matching call to
+	 * {@link #endBatch()}.  Batches may be nested.  The changes of a batch
+	 * are lexed once, when the outermost batch ends, and are undone and
+	 * redone as a single edit.  The views do not repaint for each change: the
+	 * damaged part of the document is published once to the {@link #TOKENS}
+	 * property listeners at the end of the batch.  Until then, the changed
+	 * text has no tokens, so changes that need the tokens of the changes
+	 * before them should not be batched.
+	 */
+	public void beginBatch() {
+		if (batchDepth++ == 0) {
+			undo.beginBatch();
+		}
+		beginBulkEdit();
+	}
+
+	/**
+	 * Ends a batch of changes started with {@link #beginBatch()}
+	 */
+	public void endBatch() {
+		endBulkEdit();
+		if (--batchDepth == 0) {
+			undo.endBatch();
+		}
+	}
+
+	/**
+	 * Runs the given changes as a single batch, see {@link #beginBatch()}
+	 */
+	public void runBatch(Runnable changes) {
+		beginBatch();
+		try {
+			changes.run();
+		} finally {
+			endBatch();
+		}
+	}
+
+	/**
+	 * Returns true while a batch of changes is being made
+	 */
+	public boolean isInBatch() {
+		return batchDepth > 0;
+	}
 
+	/**
+	 * Inserts a large text at once, like a file being loaded or a large paste.
+	 * The text goes in with a single edit, so the line map is updated in one
+	 * pass and the text is lexed once.  If undoable is false and the
+	 * document is empty, like when a file is loaded, the insert is not
+	 * recorded for undo, and the undo history is cleared, as its edits no
+	 * longer match the text.  An insert into a document that has text is
+	 * always recorded, so that the edits before it can still be undone.
+	 */
+	public void insertBulk(int offset, String text, boolean undoable) throws BadLocationException {
+		if (undoable || getLength() > 0) {
+			insertString(offset, text, null);
+			return;
+		}
+		removeUndoableEditListener(undo);
+		try {
+			insertString(offset, text, null);
+		} finally {
+			addUndoableEditListener(undo);
+			clearUndos();
+		}
+	}
+
+	/*
+	 * Lexes the next part of a document that is parsed progressively, and
+	 * tells the views which part got its tokens.  If the views painted lines
+	 * past the lexed part, lexing goes on from the last checkpoint up to the
+	 * end of those lines, so that they get their real tokens right away.
+	 * Called by the progress timer, on the event dispatch thread.
+	 */
+	private void lexFurther() {
+		TokenSnapshot snapshot = null;
+		writeLock();
+		try {
+			if (lexedEnd >= 0 && !asynchronousParsing && lexer instanceof RestartableLexer) {
+				int stopAt = lexedEnd + PROGRESSIVE_STEP;
+				if (wantedEnd > lexedEnd) {
+					stopAt = Math.max(stopAt, wantedEnd + PROVISIONAL_MARGIN);
+				}
+				wantedEnd = 0;
+				synchronized (lexer) {
+					int len = getLength();
+					snapshot = relex((RestartableLexer) lexer, tokens, checkpoints, -1, len, len, len, 0,
+						stopAt);
+				}
+				lexedEnd = snapshot.lexedEnd;
+			}
+		} finally {
+			writeUnlock();
+		}
+		if (snapshot == null || snapshot.lexedEnd < 0) {
+			getProgressTimer().stop();
+		}
+		if (snapshot != null) {
+			propSupport.firePropertyChange(TOKENS, null, snapshot);
+		}
+	}
+
+	private Timer getProgressTimer() {
+		if (progressTimer == null) {
+			progressTimer = new Timer(PROGRESSIVE_DELAY, new ActionListener() {
+
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					lexFurther();
+				}
+			});
+		}
+		return progressTimer;
+	}
+
+	/*
+	 * Returns tokens for a part of a read only document, guessed by lexing
+	 * the lines around it from the initial lexer state.  That is right
+	 * unless the part starts inside a multi-line token.
+	 */
+	private TokenBuffer getProvisionalTokens(int start, int end) {
+		if (provisional != null && start >= provisionalStart && end <= provisionalEnd) {
+			return provisional;
+		}
+		TokenBuffer toks = new TokenBuffer();
+		readLock();
+		try {
+			int from = getParagraphElement(start).getStartOffset();
+			int to = getParagraphElement(Math.min(end + PROVISIONAL_MARGIN, getLength())).getEndOffset();
+			synchronized (lexer) {
+				RestartableLexer rl = (RestartableLexer) lexer;
+				rl.restart(new ContentReader(from, -1), from, null);
+				while (rl.nextToken(toks) && rl.getPosition() < to) {
+					// lex up to the end of the margin
+				}
+			}
+			provisional = toks;
+			provisionalStart = from;
+			provisionalEnd = to;
+		} catch (IOException ex) {
+			log.log(Level.SEVERE, null, ex);
+		} finally {
+			readUnlock();
+		}
+		return toks;
+	}
+
+	/*
+	 * Queues a background parse, unless one is already queued that has not
+	 * started yet.  The queued parse picks up all edits made until it starts.
+	 */
+	private void scheduleParse() {
+		if (parseScheduled.compareAndSet(false, true)) {
+			getParser().execute(parseJob);
+		}
+	}
+
+	/*
+	 * Brings the background tokens up to the current version of the document,
+	 * and publishes them to the event dispatch thread.  This runs on the
+	 * parser thread, and gives up as soon as the document is edited again,
+	 * as that edit has queued another parse.
+	 *
+	 * The parser relexes its own buffers in place, and the document makes
+	 * the same splice to its buffers, so an edit costs the size of the
+	 * damage on both threads.  Only tokens lexed as a whole are copied.
+	 */
+	private void parseInBackground() {
+		if (reparseAll.getAndSet(false)) {
+			parsed = null;
+		}
+		final TokenSnapshot base = parsed;
+		int v;
+		int[] damage = null;
+		readLock();
+		try {
+			v = version;
+			if (base != null && base.version == v) {
+				return;
+			}
+			if (base != null && base.checkpoints != null && incrementalParsing) {
+				damage = pendingDamage(base.version);
+			}
+		} finally {
+			readUnlock();
+		}
+		TokenSnapshot snapshot;
+		try {
+			synchronized (lexer) {
+				if (lexer instanceof RestartableLexer) {
+					RestartableLexer rl = (RestartableLexer) lexer;
+					if (damage == null) {
+						snapshot = relex(rl, null, null, v, 0, 0, 0, 0, Integer.MAX_VALUE);
+					} else {
+						snapshot = relex(rl, base.tokens, base.checkpoints,
+							v, damage[0], damage[1], damage[2], damage[2] - damage[1],
+							Integer.MAX_VALUE);
+					}
+				} else {
+					snapshot = lexCopy(v);
+				}
+			}
+		} catch (CancellationException ex) {
+			return;
+		}
+		parsed = snapshot;
+		final TokenSnapshot published;
+		if (snapshot.splice == null && snapshot.checkpoints != null) {
+			// the parser goes on changing its buffers
+			published = new TokenSnapshot(v, snapshot.tokens.copy(), snapshot.checkpoints.copy(),
+				snapshot.damageStart, snapshot.damageEnd, -1);
+		} else {
+			published = snapshot;
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+
+			@Override
+			public void run() {
+				if (asynchronousParsing && published.version > publishedVersion) {
+					publish(published, base == null ? -1 : base.version);
+				}
+			}
+		});
+	}
 
 	/*
-	 * Parse the entire document and return list of tokens that do not already
-	 * exist in the tokens list.  There may be overlaps, and replacements,
-	 * which we will cleanup later.
-	 *
-	 * @return list of tokens that do not exist in the tokens field
+	 * Brings the tokens of the document to those of a snapshot of the
+	 * background parser, lexed from the tokens of version base.  Called on
+	 * the event dispatch thread.
 	 */
-	private void parse() {
-		// if we have no lexer, then we must have no tokens...
-		if (lexer == null) {
-			tokens = null;
+	private void publish(TokenSnapshot published, int base) {
+		TokenSnapshot.Splice splice = published.splice;
+		if (splice != null && base != publishedVersion) {
+			// the document missed the tokens the splice was made to
+			reparseAll.set(true);
+			scheduleParse();
 			return;
 		}
-		List<Token> toks = new ArrayList<Token>(getLength() / 10);
-		long ts = System.nanoTime();
-		int len = getLength();
+		writeLock();
 		try {
-			Segment seg = new Segment();
+			if (splice == null) {
+				tokens = published.tokens;
+				checkpoints = published.checkpoints;
+			} else {
+				splice.apply(tokens, checkpoints, published.version == version);
+			}
+			publishedVersion = published.version;
+		} finally {
+			writeUnlock();
+		}
+		propSupport.firePropertyChange(TOKENS, null, splice == null ? published
+			: new TokenSnapshot(published.version, tokens, checkpoints,
+				published.damageStart, published.damageEnd, -1));
+	}
+
+	/*
+	 * Lexes a copy of the whole text, for lexers that cannot be restarted
+	 */
+	private TokenSnapshot lexCopy(int v) {
+		Segment seg = new Segment();
+		readLock();
+		try {
+			if (version != v || !asynchronousParsing) {
+				throw new CancellationException();
+			}
 			getText(0, getLength(), seg);
-			lexer.parse(seg, 0, toks);
+			char[] text = Arrays.copyOfRange(seg.array, seg.offset, seg.offset + seg.count);
+			seg = new Segment(text, 0, text.length);
 		} catch (BadLocationException ex) {
 			log.log(Level.SEVERE, null, ex);
+			throw new CancellationException();
 		} finally {
-			if (log.isLoggable(Level.FINEST)) {
-				log.finest(String.format("Parsed %d in %d ms, giving %d tokens\n",
-					len, (System.nanoTime() - ts) / 1000000, toks.size()));
+			readUnlock();
+		}
+		List<Token> toks = new ArrayList<Token>(seg.count / 10);
+		lexer.parse(seg, 0, toks);
+		return new TokenSnapshot(v, toBuffer(toks, toks.size()), null, 0, seg.count, -1);
+	}
+
+	/*
+	 * Merges the edits made since the given version into a single edit
+	 * {offset, oldEnd, newEnd}, and forgets about the older ones.
+	 * Called with the read lock held, so no edit is under way.
+	 */
+	private int[] pendingDamage(int since) {
+		synchronized (pendingEdits) {
+			int[] damage = null;
+			Iterator<int[]> it = pendingEdits.iterator();
+			while (it.hasNext()) {
+				int[] edit = it.next();
+				if (edit[0] <= since) {
+					it.remove();
+				} else if (damage == null) {
+					damage = new int[] { edit[1], edit[2], edit[3] };
+				} else {
+					// damage is old [offset, oldEnd) replaced by new [offset, newEnd),
+					// edit is given in the coordinates after the damage
+					int removedEnd = edit[2];
+					damage[0] = Math.min(damage[0], edit[1]);
+					if (removedEnd > damage[2]) {
+						damage[1] += removedEnd - damage[2];
+					}
+					damage[2] = Math.max(damage[2], removedEnd) + edit[3] - edit[2];
+				}
 			}
-			tokens = toks;
+			return damage;
 		}
 	}
 
+	private static synchronized ExecutorService getParser() {
+		if (parser == null) {
+			parser = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "jsyntaxpane-parser");
+					t.setDaemon(true);
+					t.setPriority(Thread.NORM_PRIORITY - 1);
+					return t;
+				}
+			});
+		}
+		return parser;
+	}
+
+	/*
+	 * Copies the first n tokens of a list returned by a Lexer
+	 */
+	private static TokenBuffer toBuffer(List<Token> toks, int n) {
+		TokenBuffer buffer = new TokenBuffer(n);
+		for (int i = 0; i < n; i++) {
+			buffer.add(toks.get(i));
+		}
+		return buffer;
+	}
+
+	/*
+	 * Searches the tokens for one with the given start, length and type, the
+	 * way Collections.binarySearch would with Token.compareTo.
+	 *
+	 * @return index of the token, or (-(insertion point) - 1)
+	 */
+	private static int searchToken(TokenBuffer tokens, int start, int length, TokenType type) {
+		int lo = 0;
+		int hi = tokens.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int cmp = tokens.getStart(mid) - start;
+			if (cmp == 0) {
+				cmp = tokens.getLength(mid) - length;
+			}
+			if (cmp == 0) {
+				cmp = tokens.getType(mid).compareTo(type);
+			}
+			if (cmp < 0) {
+				lo = mid + 1;
+			} else if (cmp > 0) {
+				hi = mid;
+			} else {
+				return mid;
+			}
+		}
+		return -lo - 1;
+	}
+
 	@Override
 	protected void fireChangedUpdate(DocumentEvent e) {
-		parse();
+		parse(e);
 		super.fireChangedUpdate(e);
 	}
 
 	@Override
 	protected void fireInsertUpdate(DocumentEvent e) {
-		parse();
+		annotations.insertUpdate(e.getOffset(), e.getLength());
+		if (searchIndex != null) {
+			searchIndex.insertUpdate(e.getOffset(), e.getLength());
+		}
+		parse(e);
 		super.fireInsertUpdate(e);
 	}
 
 	@Override
 	protected void fireRemoveUpdate(DocumentEvent e) {
-		parse();
+		annotations.removeUpdate(e.getOffset(), e.getLength());
+		if (searchIndex != null) {
+			searchIndex.removeUpdate(e.getOffset(), e.getLength());
+		}
+		parse(e);
 		super.fireRemoveUpdate(e);
 	}
 
+	/**
+	 * Enables or disables incremental parsing.  When enabled, an edit only
+	 * re-lexes the damaged part of the document instead of the whole text.
+	 * A {@link RestartableLexer} resumes from the saved state of the line
+	 * before the edit.  Any other Lexer must be able to restart at the
+	 * beginning of any token that it returned.
+	 */
+	public void setIncrementalParsing(boolean value) {
+		incrementalParsing = value;
+	}
+
+	public boolean isIncrementalParsing() {
+		return incrementalParsing;
+	}
+
+	/**
+	 * Enables or disables asynchronous parsing.  When enabled, edits never
+	 * wait for the lexer: the tokens are brought up to date on a background
+	 * thread, which gives up on a version of the text as soon as it is edited
+	 * again.  Until the parser has caught up, the tokens of the last version
+	 * it finished are used.  Each new version of the tokens is published to
+	 * the {@link #TOKENS} property listeners.
+	 */
+	public void setAsynchronousParsing(boolean value) {
+		if (asynchronousParsing == value) {
+			return;
+		}
+		asynchronousParsing = value;
+		if (!value) {
+			synchronized (pendingEdits) {
+				pendingEdits.clear();
+			}
+			publishedVersion = -1;
+		}
+		parse();
+	}
+
+	public boolean isAsynchronousParsing() {
+		return asynchronousParsing;
+	}
+
+	/**
+	 * Enables or disables progressive parsing of large documents.  When
+	 * enabled, and the document is lexed with a {@link RestartableLexer},
+	 * parsing a whole large document only lexes its beginning right away.
+	 * The rest is lexed a part at a time when the event dispatch thread is
+	 * idle, and each part is published to the {@link #TOKENS} property
+	 * listeners.  Until then, the lines past the lexed part are painted as
+	 * plain text.  Once lines past it have been painted, the next part that
+	 * is lexed goes up to the end of those lines.
+	 *
+	 * This has no effect while the document is parsed asynchronously.
+	 */
+	public void setProgressiveParsing(boolean value) {
+		progressiveParsing = value;
+	}
+
+	public boolean isProgressiveParsing() {
+		return progressiveParsing;
+	}
+
+	/**
+	 * Sets the memory, in bytes, that the {@link SearchIndex} of this
+	 * document may use.  The index is built in the background when the
+	 * document is first searched, and lets searches for literals skip the
+	 * parts of the document that do not contain them.  The larger the
+	 * limit, the smaller the parts.  0, the default, disables the index.
+	 */
+	public void setSearchIndexLimit(int bytes) {
+		writeLock();
+		try {
+			searchIndexLimit = bytes;
+			if (searchIndex != null) {
+				searchIndex.drop();
+				searchIndex = null;
+			}
+		} finally {
+			writeUnlock();
+		}
+	}
+
+	public int getSearchIndexLimit() {
+		return searchIndexLimit;
+	}
+
+	/**
+	 * Returns the parts of the document that the matches of the pattern can
+	 * be in, as the start and end of each, or null if they can be anywhere.
+	 * Use them with {@link SearchIndex#find(Matcher, int[], int)}, on a
+	 * matcher over the text of this version of the document.
+	 *
+	 * The parts are only known for patterns that contain a literal of at
+	 * least 3 chars, once the search index is built.  The first call builds
+	 * it in the background, if its limit allows.
+	 */
+	public int[] getSearchRanges(Pattern pattern) {
+		readLock();
+		try {
+			if (searchIndexLimit <= 0) {
+				return null;
+			}
+			SearchIndex index = searchIndex;
+			if (index == null) {
+				index = SearchIndex.create(this, getLength(), searchIndexLimit);
+				if (index == null) {
+					return null;
+				}
+				searchIndex = index;
+			}
+			return index.getRanges(pattern);
+		} finally {
+			readUnlock();
+		}
+	}
+
 	/**
 	 * Replaces the token with the replacement string
 	 */
@@ -381,6 +1337,165 @@ public class SyntaxDocument extends NbEditorDocument {
 		}
 	}
 
+	/*
+	 * Reads the document text from a given offset, a small chunk at a time,
+	 * so that a lexer which stops early does not need the whole rest of the
+	 * document, and so that pos tells closely how far the lexer has looked.
+	 * Reaching the end of the document counts as reading one more char, as
+	 * appending text changes what the lexer saw there.
+	 */
+	private class ContentReader extends Reader {
+
+		private final Segment seg = new Segment();
+		// the document version to read, or -1 if the caller holds the lock
+		private final int expected;
+		int pos;
+
+		ContentReader(int pos, int expected) {
+			this.pos = pos;
+			this.expected = expected;
+			seg.setPartialReturn(true);
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			lock();
+			try {
+				int n = Math.min(Math.min(len, READ_CHUNK), getLength() - pos);
+				if (n <= 0) {
+					pos = getLength() + 1;
+					return -1;
+				}
+				getText(pos, n, seg);
+				System.arraycopy(seg.array, seg.offset, cbuf, off, seg.count);
+				pos += seg.count;
+				return seg.count;
+			} catch (BadLocationException ex) {
+				throw new IOException(ex);
+			} finally {
+				unlock();
+			}
+		}
+
+		/*
+		 * Returns the end of the line at pos
+		 */
+		int lineEnd(int pos) {
+			lock();
+			try {
+				int line = lineIndex.getLineAt(pos);
+				return line + 1 < lineIndex.getLineCount() ? lineIndex.getLineStart(line + 1) : getLength() + 1;
+			} finally {
+				unlock();
+			}
+		}
+
+		private void lock() {
+			if (expected >= 0) {
+				readLock();
+				if (version != expected || !asynchronousParsing) {
+					readUnlock();
+					throw new CancellationException();
+				}
+			}
+		}
+
+		private void unlock() {
+			if (expected >= 0) {
+				readUnlock();
+			}
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/*
+	 * The text of one version of the document, from start to start + length.
+	 * A window of it is copied at a time, starting a little before the char
+	 * asked for, as matchers go back a few chars at times.
+	 */
+	private class VersionText implements CharSequence {
+
+		private final int expected;
+		private final int start;
+		private final int length;
+		private final Segment seg = new Segment();
+		private char[] window;
+		// the range of the sequence in the window
+		private int windowStart;
+		private int windowEnd;
+
+		VersionText(int expected, int start, int length) {
+			this.expected = expected;
+			this.start = start;
+			this.length = length;
+			seg.setPartialReturn(true);
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < windowStart || index >= windowEnd) {
+				if (index < 0 || index >= length) {
+					throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+				}
+				if (window == null) {
+					window = new char[VERSION_TEXT_WINDOW];
+				}
+				windowStart = Math.max(0, index - VERSION_TEXT_BACK);
+				windowEnd = Math.min(length, windowStart + window.length);
+				read(windowStart, windowEnd, window);
+			}
+			return window[index - windowStart];
+		}
+
+		@Override
+		public CharSequence subSequence(int from, int to) {
+			if (from < 0 || to > length || from > to) {
+				throw new IndexOutOfBoundsException("range " + from + "-" + to + ", length " + length);
+			}
+			return new VersionText(expected, start + from, to - from);
+		}
+
+		@Override
+		public String toString() {
+			char[] chars = new char[length];
+			read(0, length, chars);
+			return new String(chars);
+		}
+
+		/*
+		 * Copies the chars from..to of the sequence to the start of dest
+		 */
+		private void read(int from, int to, char[] dest) {
+			if (Thread.currentThread().isInterrupted()) {
+				throw new CancellationException();
+			}
+			readLock();
+			try {
+				if (version != expected) {
+					throw new CancellationException();
+				}
+				int pos = from;
+				while (pos < to) {
+					getText(start + pos, to - pos, seg);
+					System.arraycopy(seg.array, seg.offset, dest, pos - from, seg.count);
+					pos += seg.count;
+				}
+			} catch (BadLocationException ex) {
+				throw new CancellationException();
+			} finally {
+				readUnlock();
+			}
+		}
+	}
+
 	/**
 	 * This class is used to iterate over tokens between two positions
 	 */
@@ -388,45 +1503,47 @@ public class SyntaxDocument extends NbEditorDocument {
 
 		int start;
 		int end;
-		int ndx = 0;
+		// positioned on the token next() returns, null if there are no tokens
+		private final TokenCursor cursor;
 
-		@SuppressWarnings("unchecked")
-		private TokenIterator(int start, int end) {
+		private TokenIterator(TokenBuffer tokens, int start, int end) {
 			this.start = start;
 			this.end = end;
 			if (tokens != null && !tokens.isEmpty()) {
-				Token token = new Token(TokenType.COMMENT, start, end - start);
-				ndx = Collections.binarySearch((List) tokens, token);
+				int ndx = searchToken(tokens, start, end - start, TokenType.COMMENT);
 				// we will probably not find the exact token...
 				if (ndx < 0) {
 					// so, start from one before the token where we should be...
 					// -1 to get the location, and another -1 to go back..
 					ndx = (-ndx - 1 - 1 < 0) ? 0 : (-ndx - 1 - 1);
-					Token t = tokens.get(ndx);
 					// if the prev token does not overlap, then advance one
-					if (t.end() <= start) {
+					if (tokens.getEnd(ndx) <= start) {
 						ndx++;
 					}
 
 				}
+				cursor = new TokenCursor(tokens, ndx);
+			} else {
+				cursor = null;
 			}
 		}
 
 		@Override
 		public boolean hasNext() {
-			if (tokens == null) {
+			if (cursor == null) {
 				return false;
 			}
-			if (ndx >= tokens.size()) {
-				return false;
-			}
-			Token t = tokens.get(ndx);
-            return t.start < end;
+            return cursor.isValid() && cursor.getStart() < end;
         }
 
 		@Override
 		public Token next() {
-			return tokens.get(ndx++);
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Token t = cursor.getToken();
+			cursor.next();
+			return t;
 		}
 
 		@Override
@@ -436,29 +1553,32 @@ public class SyntaxDocument extends NbEditorDocument {
 
 		@Override
 		public boolean hasPrevious() {
-			if (tokens == null) {
-				return false;
-			}
-			if (ndx <= 0) {
+			if (cursor == null || cursor.getIndex() <= 0) {
 				return false;
 			}
-			Token t = tokens.get(ndx);
-            return t.end() > start;
+			cursor.previous();
+			boolean overlaps = cursor.getEnd() > start;
+			cursor.next();
+            return overlaps;
         }
 
 		@Override
 		public Token previous() {
-			return tokens.get(ndx--);
+			if (!hasPrevious()) {
+				throw new NoSuchElementException();
+			}
+			cursor.previous();
+			return cursor.getToken();
 		}
 
 		@Override
 		public int nextIndex() {
-			return ndx + 1;
+			return cursor == null ? 0 : cursor.getIndex();
 		}
 
 		@Override
 		public int previousIndex() {
-			return ndx - 1;
+			return nextIndex() - 1;
 		}
 
 		@Override
@@ -479,7 +1599,65 @@ public class SyntaxDocument extends NbEditorDocument {
 	 * @return Iterator for tokens that overall with range from start to end
 	 */
 	public Iterator<Token> getTokens(int start, int end) {
-		return new TokenIterator(start, end);
+		return new TokenIterator(getTokenBuffer(start, end), start, end);
+	}
+
+	/**
+	 * Returns the tokens to paint between start and end.  Views walk them
+	 * by index, so painting does not create any Token objects.  May return
+	 * null, and is only valid until the document is changed.
+	 *
+	 * A part of a document parsed progressively that has not been lexed yet
+	 * has no tokens, and is painted as plain text.  It is remembered, so
+	 * that it is lexed next.  A read only document gets guessed tokens.
+	 */
+	TokenBuffer getTokenBuffer(int start, int end) {
+		if (lexedEnd >= 0 && end > lexedEnd) {
+			if (mappedContent != null) {
+				return start >= lexedEnd ? getProvisionalTokens(start, end) : tokens;
+			}
+			wantedEnd = Math.max(wantedEnd, end);
+			return start >= lexedEnd ? null : tokens;
+		}
+		return tokens;
+	}
+
+	/**
+	 * Returns the annotation layers of this document, that its views paint
+	 * below the text
+	 */
+	public Annotations getAnnotationLayers() {
+		return annotations;
+	}
+
+	/**
+	 * Returns the occurrences of the words of the given token types, like
+	 * identifiers.  The index is updated with the relexed parts of the
+	 * document, and only built again when all of its tokens are replaced.
+	 * While the background parser has not caught up with the edits, the
+	 * words of the tokens it published last are not read yet, and are left
+	 * out.  Like the tokens, it should be used under a read lock.  Returns
+	 * null if the document has no tokens.
+	 */
+	public OccurrenceIndex getOccurrenceIndex(Set<TokenType> types) {
+		return tokens == null ? null : tokens.getOccurrenceIndex(this, types, isTokensCurrent());
+	}
+
+	/*
+	 * Returns true if the tokens match the text of the document
+	 */
+	private boolean isTokensCurrent() {
+		return !asynchronousParsing || publishedVersion == version;
+	}
+
+	/**
+	 * Returns the occurrences of the words that pattern matches in the text
+	 * of the tokens, with the words sorted for completion.  It is updated
+	 * like {@link #getOccurrenceIndex(Set)}, and should be used under a read
+	 * lock.  Returns null if the document has no tokens.
+	 */
+	public OccurrenceIndex getWordIndex(Pattern pattern) {
+		return tokens == null ? null : tokens.getWordIndex(this, pattern, isTokensCurrent());
 	}
 
 	/**
@@ -487,25 +1665,46 @@ public class SyntaxDocument extends NbEditorDocument {
 	 * found (whitespace skipped) or if the position is out of range:
 	 */
 	public Token getTokenAt(int pos) {
+		int ndx = tokenIndexAt(pos);
+		return ndx < 0 ? null : tokens.get(ndx);
+	}
+
+	/**
+	 * Returns a cursor on the token at the given position, that is the token
+	 * {@link #getTokenAt(int)} returns.  May return null if no token is
+	 * found or if the position is out of range.
+	 */
+	public TokenCursor getTokenCursor(int pos) {
+		int ndx = tokenIndexAt(pos);
+		return ndx < 0 ? null : new TokenCursor(tokens, ndx);
+	}
+
+	/**
+	 * Returns a cursor on the given token, or null if the token is not in
+	 * this document
+	 */
+	public TokenCursor getTokenCursor(Token tok) {
+		int ndx = tokens == null || tok == null ? -1 : tokens.indexOf(tok);
+		return ndx < 0 ? null : new TokenCursor(tokens, ndx);
+	}
+
+	/*
+	 * Returns the index of the token at pos, or -1
+	 */
+	private int tokenIndexAt(int pos) {
 		if (tokens == null || tokens.isEmpty() || pos > getLength()) {
-			return null;
+			return -1;
 		}
-		Token tok = null;
-		Token tKey = new Token(TokenType.DEFAULT, pos, 1);
-		@SuppressWarnings("unchecked")
-		int ndx = Collections.binarySearch((List) tokens, tKey);
+		int ndx = searchToken(tokens, pos, 1, TokenType.DEFAULT);
 		if (ndx < 0) {
 			// so, start from one before the token where we should be...
 			// -1 to get the location, and another -1 to go back..
 			ndx = (-ndx - 1 - 1 < 0) ? 0 : (-ndx - 1 - 1);
-			Token t = tokens.get(ndx);
-			if ((t.start <= pos) && (pos <= t.end())) {
-				tok = t;
+			if ((tokens.getStart(ndx) > pos) || (pos > tokens.getEnd(ndx))) {
+				ndx = -1;
 			}
-		} else {
-			tok = tokens.get(ndx);
 		}
-		return tok;
+		return ndx;
 	}
 
 	public Token getWordAt(int offs, Pattern p) {
@@ -537,26 +1736,28 @@ public class SyntaxDocument extends NbEditorDocument {
 	}
 
 	/**
-	 * Returns the token following the current token, or null
-	 * <b>This is an expensive operation, so do not use it to update the gui</b>
+	 * Returns the token following the current token, or null.
+	 * This has to look up the token first, so use a {@link TokenCursor} to
+	 * walk over several tokens.
 	 */
 	public Token getNextToken(Token tok) {
-		int n = tokens.indexOf(tok);
-		if ((n >= 0) && (n < (tokens.size() - 1))) {
-			return tokens.get(n + 1);
+		TokenCursor cursor = getTokenCursor(tok);
+		if (cursor != null && cursor.next()) {
+			return cursor.getToken();
 		} else {
 			return null;
 		}
 	}
 
 	/**
-	 * Returns the token prior to the given token, or null
-	 * <b>This is an expensive operation, so do not use it to update the gui</b>
+	 * Returns the token prior to the given token, or null.
+	 * This has to look up the token first, so use a {@link TokenCursor} to
+	 * walk over several tokens.
 	 */
 	public Token getPrevToken(Token tok) {
-		int n = tokens.indexOf(tok);
-		if ((n > 0) && (!tokens.isEmpty())) {
-			return tokens.get(n - 1);
+		TokenCursor cursor = getTokenCursor(tok);
+		if (cursor != null && cursor.previous()) {
+			return cursor.getToken();
 		} else {
 			return null;
 		}
@@ -569,6 +1770,8 @@ public class SyntaxDocument extends NbEditorDocument {
 	 * This method properly handles nestings of same pairValues, but overlaps
 	 * are not checked.
 	 * if the document does not contain a paired token, then null is returned.
+	 * The pairs are kept in a table that follows the edits, so this does
+	 * not scan the tokens between the pair.
      *
 	 * @return the other pair's token, or null if nothing is found.
 	 */
@@ -576,30 +1779,29 @@ public class SyntaxDocument extends NbEditorDocument {
 		if (t == null || t.pairValue == 0) {
 			return null;
 		}
-		Token p = null;
-		int ndx = tokens.indexOf(t);
-		// w will be similar to a stack. The openners weght is added to it
-		// and the closers are subtracted from it (closers are already negative)
-		int w = t.pairValue;
-		int direction = (t.pairValue > 0) ? 1 : -1;
-		boolean done = false;
-		int v = Math.abs(t.pairValue);
-		while (!done) {
-			ndx += direction;
-			if (ndx < 0 || ndx >= tokens.size()) {
-				break;
-			}
-			Token current = tokens.get(ndx);
-			if (Math.abs(current.pairValue) == v) {
-				w += current.pairValue;
-				if (w == 0) {
-					p = current;
-					done = true;
-				}
-			}
+		TokenCursor cursor = getTokenCursor(t);
+		if (cursor != null && cursor.moveToPair()) {
+			return cursor.getToken();
 		}
+		return null;
+	}
 
-		return p;
+	/**
+	 * Returns the tokens with a pair value that have no partner in the
+	 * document, like unbalanced brackets.
+	 */
+	public List<Token> getUnmatchedPairs() {
+		List<Token> unmatched = new ArrayList<Token>();
+		if (tokens == null) {
+			return unmatched;
+		}
+		PairIndex index = tokens.getPairIndex();
+		for (int k = 0; k < index.size(); k++) {
+			if (index.getPartner(k) == PairIndex.UNMATCHED) {
+				unmatched.add(tokens.get(index.getToken(k)));
+			}
+		}
+		return unmatched;
 	}
 
     // public boolean isDirty() { return dirty; }
@@ -635,8 +1837,13 @@ public class SyntaxDocument extends NbEditorDocument {
 	 */
 	public void doUndo() {
 		if (undo.canUndo()) {
-			undo.undo();
-			parse();
+			// the changes being undone are lexed together
+			beginBulkEdit();
+			try {
+				undo.undo();
+			} finally {
+				endBulkEdit();
+			}
 		}
 	}
 
@@ -649,8 +1856,12 @@ public class SyntaxDocument extends NbEditorDocument {
 	 */
 	public void doRedo() {
 		if (undo.canRedo()) {
-			undo.redo();
-			parse();
+			beginBulkEdit();
+			try {
+				undo.redo();
+			} finally {
+				endBulkEdit();
+			}
 		}
 	}
 
@@ -718,6 +1929,109 @@ public class SyntaxDocument extends NbEditorDocument {
 		return matcher;
 	}
 
+	/**
+	 * Returns the version of the text of this document.  The version is
+	 * incremented by every edit.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the text of the current version of the document as a
+	 * CharSequence that can be read from any thread, like a Matcher running
+	 * in the background.  The text is copied a chunk at a time under the read
+	 * lock, so the document is not locked for the whole search.  Once the
+	 * document has been changed, or if the reading thread is interrupted,
+	 * reading it throws a CancellationException.
+	 */
+	public CharSequence getVersionText() {
+		readLock();
+		try {
+			return new VersionText(version, 0, getLength());
+		} finally {
+			readUnlock();
+		}
+	}
+
+	/**
+	 * Returns the text of the document as a CharSequence that reads the
+	 * content itself, without copying it when it is in one or two parts.
+	 * It takes no lock, so it can be read from several threads at once, but
+	 * only while the caller holds a lock on the document, as within
+	 * {@link #render(Runnable)}: an edit changes the content it reads.
+	 */
+	public CharSequence getContentChars() {
+		int length = getLength();
+		Segment first = new Segment();
+		first.setPartialReturn(true);
+		try {
+			getText(0, length, first);
+			if (first.count == length) {
+				return CharBuffer.wrap(first.array, first.offset, first.count);
+			}
+			Segment second = new Segment();
+			second.setPartialReturn(true);
+			getText(first.count, length - first.count, second);
+			if (first.count + second.count == length) {
+				return new SplitText(first, second);
+			}
+			// more parts, as in a mapped content
+			Segment seg = new Segment();
+			getText(0, length, seg);
+			return CharBuffer.wrap(seg.array, seg.offset, seg.count);
+		} catch (BadLocationException ex) {
+			log.log(Level.SEVERE, null, ex);
+			return "";
+		}
+	}
+
+	/*
+	 * Text in two arrays, like the parts of a gap content before and after
+	 * its gap
+	 */
+	private static final class SplitText implements CharSequence {
+
+		private final char[] first;
+		private final int firstOffset;
+		private final int firstCount;
+		private final char[] second;
+		private final int secondOffset;
+		private final int length;
+
+		SplitText(Segment first, Segment second) {
+			this.first = first.array;
+			firstOffset = first.offset;
+			firstCount = first.count;
+			this.second = second.array;
+			secondOffset = second.offset - first.count;
+			length = first.count + second.count;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < 0 || index >= length) {
+				throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+			}
+			return index < firstCount ? first[firstOffset + index] : second[secondOffset + index];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new StringBuilder(end - start).append(this, start, end).toString();
+		}
+
+		@Override
+		public String toString() {
+			return new StringBuilder(length).append(this, 0, length).toString();
+		}
+	}
+
 	/**
 	 * Gets the line at given position.  The line returned will NOT include
 	 * the line terminator '\n'
@@ -798,7 +2112,7 @@ public class SyntaxDocument extends NbEditorDocument {
 	 * @return starting position of the line
 	 */
 	public int getLineStartOffset(int pos) {
-		return getParagraphElement(pos).getStartOffset();
+		return lineIndex.getLineStart(lineIndex.getLineAt(pos));
 	}
 
 	/**
@@ -807,8 +2121,8 @@ public class SyntaxDocument extends NbEditorDocument {
 	 * document length
 	 */
 	public int getLineEndOffset(int pos) {
-		int end = 0;
-		end = getParagraphElement(pos).getEndOffset();
+		int line = lineIndex.getLineAt(pos);
+		int end = line + 1 < lineIndex.getLineCount() ? lineIndex.getLineStart(line + 1) : getLength();
 		if (end >= getLength()) {
 			end = getLength();
 		}
@@ -819,15 +2133,14 @@ public class SyntaxDocument extends NbEditorDocument {
 	 * Returns the number of lines in this document
 	 */
 	public int getLineCount() {
-		Element e = getDefaultRootElement();
-        return e.getElementCount();
+		return lineIndex.getLineCount();
 	}
 
 	/**
 	 * Returns the line number at given position.  The line numbers are zero based
 	 */
 	public int getLineNumberAt(int pos) {
-        return getDefaultRootElement().getElementIndex(pos);
+		return lineIndex.getLineAt(pos);
 	}
 
 	@Override
@@ -844,9 +2157,15 @@ public class SyntaxDocument extends NbEditorDocument {
 	 */
 	@Override
 	public void replace(int offset, int length, String text, AttributeSet attrs) throws BadLocationException {
-		remove(offset, length);
-		undo.startCombine();
-		insertString(offset, text, attrs);
+		// the removed and the inserted text are lexed together
+		beginBulkEdit();
+		try {
+			remove(offset, length);
+			undo.startCombine();
+			insertString(offset, text, attrs);
+		} finally {
+			endBulkEdit();
+		}
 	}
 
 	/**
@@ -863,6 +2182,31 @@ public class SyntaxDocument extends NbEditorDocument {
 		return this;
 	}
 
+	// most chars handed to a RestartableLexer per read, this bounds how far
+	// past a checkpoint the lexer may have looked
+	private static final int READ_CHUNK = 64;
+	// the window of a VersionText, and how much of it is before the char read
+	private static final int VERSION_TEXT_WINDOW = 16 * 1024;
+	private static final int VERSION_TEXT_BACK = 256;
+
+	// smallest number of chars re-lexed after an edit before checking
+	// whether the new tokens have caught up with the old ones
+	private static final int MIN_RELEX_WINDOW = 256;
+
+	// documents longer than this many chars are parsed progressively, when
+	// progressive parsing is enabled
+	private static final int PROGRESSIVE_THRESHOLD = 1 << 20;
+
+	// chars lexed at once by progressive parsing, and ms between two steps
+	private static final int PROGRESSIVE_STEP = 1 << 17;
+	private static final int PROGRESSIVE_DELAY = 10;
+
+	// chars lexed past the painted lines that had not been lexed yet
+	private static final int PROVISIONAL_MARGIN = 1 << 13;
+	// replace the tokens and checkpoints cut out by the edits of a bulk edit
+	private static final TokenBuffer EMPTY_TOKENS = new TokenBuffer(0);
+	private static final CheckpointBuffer EMPTY_CHECKPOINTS = new CheckpointBuffer(0);
+
     // our logger instance...
 	private static final Logger log = Logger.getLogger(SyntaxDocument.class.getName());
 }
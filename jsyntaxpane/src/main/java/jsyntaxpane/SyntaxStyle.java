@@ -17,6 +17,10 @@ import java.awt.Color;
 import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.PrintGraphics;
+import java.awt.font.FontRenderContext;
+import java.awt.print.PrinterGraphics;
 import javax.swing.text.Segment;
 import javax.swing.text.TabExpander;
 import javax.swing.text.Utilities;
@@ -29,8 +33,16 @@ import javax.swing.text.Utilities;
  */
 public final class SyntaxStyle {
 
+    static final Color BACKGROUND = new Color(0xEEEEEE);
     private Color color;
     private int fontStyle;
+    // the font of this style, derived from baseFont, and its metrics for
+    // renderContext.  Kept from one token to the next, so that painting
+    // does not derive fonts or look up metrics.
+    private Font baseFont;
+    private FontRenderContext renderContext;
+    private Font font;
+    private FontMetrics fontMetrics;
 
     public SyntaxStyle() {
         super();
@@ -69,6 +81,7 @@ public final class SyntaxStyle {
             int mask = -1 ^ Font.BOLD;
             fontStyle = (fontStyle & (mask));
         }
+        baseFont = null;
     }
 
     public String getColorString() {
@@ -89,6 +102,7 @@ public final class SyntaxStyle {
         } else {
             fontStyle = (fontStyle & (-1 ^ Font.ITALIC));
         }
+        baseFont = null;
     }
 
     public int getFontStyle() {
@@ -113,8 +127,11 @@ public final class SyntaxStyle {
      */
     public int drawText(Segment segment, int x, int y,
             Graphics graphics, TabExpander e, int startOffset) {
-        graphics.setFont(graphics.getFont().deriveFont(getFontStyle()));
-        FontMetrics fontMetrics = graphics.getFontMetrics();
+        graphics.setFont(getFont(graphics));
+        graphics.setColor(getColor());
+        if ((getFontStyle() & 0x18) == 0) {
+            return drawTabbedText(segment, x, y, graphics, e, startOffset);
+        }
         int a = fontMetrics.getAscent();
         int h = a + fontMetrics.getDescent();
         int w = Utilities.getTabbedTextWidth(segment, fontMetrics, 0, e, startOffset);
@@ -123,15 +140,89 @@ public final class SyntaxStyle {
         int rW = w + 2;
         int rH = h;
         if ((getFontStyle() & 0x10) != 0) {
-            graphics.setColor(Color.decode("#EEEEEE"));
+            graphics.setColor(BACKGROUND);
             graphics.fillRect(rX, rY, rW, rH);
+            graphics.setColor(getColor());
         }
-        graphics.setColor(getColor());
-        x = Utilities.drawTabbedText(segment, x, y, graphics, e, startOffset);
+        x = drawTabbedText(segment, x, y, graphics, e, startOffset);
         if ((getFontStyle() & 0x8) != 0) {
             graphics.setColor(Color.RED);
             graphics.drawRect(rX, rY, rW, rH);
         }
         return x;
     }
+
+    /*
+     * Draws the text like Utilities.drawTabbedText, but from the chars of
+     * the segment: newer versions of Swing create a String for each run of
+     * text between tabs.  The metrics are those of the font of this style.
+     */
+    private int drawTabbedText(Segment segment, int x, int y, Graphics graphics,
+            TabExpander e, int startOffset) {
+        if (graphics instanceof PrinterGraphics || graphics instanceof PrintGraphics) {
+            // Swing lays out printed text its own way
+            return Utilities.drawTabbedText(segment, x, y, graphics, e, startOffset);
+        }
+        char[] txt = segment.array;
+        int n = segment.offset + segment.count;
+        int flush = segment.offset;
+        for (int i = flush; i < n; i++) {
+            char c = txt[i];
+            if (c == '\t' || c == '\n' || c == '\r') {
+                if (i > flush) {
+                    graphics.drawChars(txt, flush, i - flush, x, y);
+                    x += fontMetrics.charsWidth(txt, flush, i - flush);
+                }
+                flush = i + 1;
+                if (c == '\t') {
+                    x = e != null ? (int) e.nextTabStop(x, startOffset + i - segment.offset)
+                            : x + fontMetrics.charWidth(' ');
+                }
+            }
+        }
+        if (n > flush) {
+            graphics.drawChars(txt, flush, n - flush, x, y);
+            x += fontMetrics.charsWidth(txt, flush, n - flush);
+        }
+        return x;
+    }
+
+    /**
+     * Returns the font of this style, derived from the font of the graphics.
+     * The font and its metrics are kept until the graphics have another
+     * font, other than one derived for a style, or another render context.
+     */
+    Font getFont(Graphics graphics) {
+        Font current = graphics.getFont();
+        FontRenderContext frc = graphics instanceof Graphics2D
+                ? ((Graphics2D) graphics).getFontRenderContext() : null;
+        if (baseFont == null || (current != font && !sameBase(current))
+                || (frc != renderContext && (frc == null || !frc.equals(renderContext)))) {
+            baseFont = current;
+            renderContext = frc;
+            // the higher bits are decorations, not font styles
+            font = current.deriveFont(fontStyle & (Font.BOLD | Font.ITALIC));
+            fontMetrics = graphics.getFontMetrics(font);
+        }
+        return font;
+    }
+
+    /**
+     * Returns the metrics of the font of this style for the given graphics
+     */
+    FontMetrics getFontMetrics(Graphics graphics) {
+        getFont(graphics);
+        return fontMetrics;
+    }
+
+    /*
+     * Returns true if the given font only differs from the base font by its
+     * style, like the fonts the other styles set before this one
+     */
+    private boolean sameBase(Font f) {
+        return f == baseFont || (f.getSize2D() == baseFont.getSize2D()
+                && f.getName().equals(baseFont.getName())
+                && f.isTransformed() == baseFont.isTransformed()
+                && (!f.isTransformed() || f.getTransform().equals(baseFont.getTransform())));
+    }
 }
@@ -14,7 +14,14 @@
 package jsyntaxpane;
 
 import java.awt.event.ItemEvent;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import javax.swing.DefaultComboBoxModel;
@@ -187,15 +194,10 @@ public class SyntaxTester extends javax.swing.JFrame {
 			jToolBar1.validate();
 			try {
 				// setText should not be called (read the JavaDocs).  Better use the read
-				// method and create a new document:
-				// jEdtTest.read(new StringReader(oldText), lang);
-
-				// ... however, the default read() will trigger a call to insertString() for each line
-				// of the document which again will a call to parse(), making the UI freeze for large documents.
-				// Therefore, for large texts, its best to create a new document and insert the data in
-				// a single operation:
+				// method and create a new document.  DefaultSyntaxKit.read() inserts
+				// the whole text in a single operation, so it is only lexed once:
 				Document doc = kit.createDefaultDocument();
-				doc.insertString(0, oldText, null);				
+				kit.read(new StringReader(oldText), doc, 0);
 				jEdtTest.setDocument(doc);
 			} catch (Exception ex) {
 				ex.printStackTrace();
@@ -216,19 +218,21 @@ public class SyntaxTester extends javax.swing.JFrame {
 
  	 /** Loads a file and shows in the editor */
 	private void loadFile(String filename) throws IOException {
-		// This will load a file:
-		// jEdtTest.read(new FileInputStream(filename), null);
-
-		// ... however, the default read() will trigger a call to insertString() for each line
-		// of the document which again will a call to parse(), making the UI freeze for large files.
-		// Therefore, for large texts, its best to create a new document and insert the data in
-		// a single operation:
-		Document doc = jEdtTest.getEditorKit().createDefaultDocument();
-		String str = new String(Files.readAllBytes(Paths.get(filename)));
+		// DefaultSyntaxKit.read() inserts the whole file in a single operation,
+		// so it is only lexed once:
+		EditorKit kit = jEdtTest.getEditorKit();
+		Document doc = kit.createDefaultDocument();
+		// like a FileReader, bytes the charset cannot decode are replaced
+		CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		Reader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(Paths.get(filename)), decoder));
 		try {
-			doc.insertString(0, str, null);
+			kit.read(reader, doc, 0);
 		} catch (BadLocationException ex) {
 			throw new IOException(ex); // Should never happen
+		} finally {
+			reader.close();
 		}
 		jEdtTest.setDocument(doc);
 	}
@@ -14,20 +14,30 @@
 package jsyntaxpane;
 
 import java.awt.Color;
+import java.awt.Component;
 import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.Shape;
+import java.awt.Rectangle;
 import java.awt.Toolkit;
-import java.util.Iterator;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
 import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
 import javax.swing.text.PlainView;
+import javax.swing.text.Position;
 import javax.swing.text.Segment;
+import javax.swing.text.View;
 import javax.swing.text.ViewFactory;
 import jsyntaxpane.util.Configuration;
 
@@ -36,12 +46,35 @@ public class SyntaxView extends PlainView {
     public static final String PROPERTY_RIGHT_MARGIN_COLOR = "RightMarginColor";
     public static final String PROPERTY_RIGHT_MARGIN_COLUMN = "RightMarginColumn";
     public static final String PROPERTY_SINGLE_COLOR_SELECT = "SingleColorSelect";
+    public static final String PROPERTY_GLYPH_CACHE_LINES = "GlyphCacheLines";
     private static final Logger log = Logger.getLogger(SyntaxView.class.getName());
     private SyntaxStyle DEFAULT_STYLE = SyntaxStyles.getInstance().getStyle(TokenType.DEFAULT);
     private final boolean singleColorSelect;
     private final int rightMarginColumn;
     private final Color rightMarginColor;
     private final SyntaxStyles styles;
+    // the shaped glyphs of the last painted lines, or null
+    private final LineGlyphCache glyphCache;
+    // the part of the line buffer being drawn
+    private final Segment part = new Segment();
+    private final PropertyChangeListener tokensListener = new PropertyChangeListener() {
+
+        @Override
+        public void propertyChange(PropertyChangeEvent evt) {
+            TokenSnapshot snapshot = (TokenSnapshot) evt.getNewValue();
+            repaintRange(snapshot.getDamageStart(), snapshot.getDamageEnd());
+        }
+    };
+    private final PropertyChangeListener annotationsListener = new PropertyChangeListener() {
+
+        @Override
+        public void propertyChange(PropertyChangeEvent evt) {
+            Annotations annotations = (Annotations) evt.getNewValue();
+            repaintRange(annotations.getDamageStart(), annotations.getDamageEnd());
+        }
+    };
+    // the annotations of the painted lines of one layer
+    private final List<Annotation> painted = new ArrayList<Annotation>();
 
     /**
      * Construct a new view using the given configuration and prefix given
@@ -57,60 +90,148 @@ public class SyntaxView extends PlainView {
         rightMarginColumn = config.getInteger(PROPERTY_RIGHT_MARGIN_COLUMN,
                 0);
         styles = SyntaxStyles.read(config);
+        int cacheLines = config.getInteger(PROPERTY_GLYPH_CACHE_LINES, 0);
+        glyphCache = cacheLines > 0 ? new LineGlyphCache(cacheLines) : null;
+    }
+
+    @Override
+    public void paint(Graphics g, Shape a) {
+        // once for all lines, not for each drawn part of them
+        setRenderingHits((Graphics2D) g);
+        paintAnnotations(g, a);
+        super.paint(g, a);
+    }
+
+    /*
+     * Fills the background of the annotations of the lines in the clip.  Like
+     * the SimpleMarkers, the annotations leave the selection unfilled, so
+     * that it shows whether the highlighter paints it before or after the
+     * views.
+     */
+    private void paintAnnotations(Graphics g, Shape a) {
+        if (!(getDocument() instanceof SyntaxDocument)) {
+            return;
+        }
+        SyntaxDocument doc = (SyntaxDocument) getDocument();
+        Annotations annotations = doc.getAnnotationLayers();
+        if (annotations.isEmpty()) {
+            return;
+        }
+        Rectangle alloc = a.getBounds();
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = alloc;
+        }
+        Position.Bias[] bias = new Position.Bias[1];
+        int p0 = doc.getLineStartOffset(viewToModel(alloc.x, clip.y, a, bias));
+        int p1 = doc.getLineEndOffset(viewToModel(alloc.x, clip.y + clip.height, a, bias));
+        int selStart = 0;
+        int selEnd = 0;
+        Collection<AnnotationLayer> layers = annotations.getLayers();
+        Component host = getContainer();
+        if (host instanceof JTextComponent) {
+            JTextComponent text = (JTextComponent) host;
+            layers = annotations.getLayers(text);
+            if (text.getCaret() != null && text.getCaret().isSelectionVisible()) {
+                selStart = text.getSelectionStart();
+                selEnd = text.getSelectionEnd();
+            }
+        }
+        Color saveColor = g.getColor();
+        try {
+            for (AnnotationLayer layer : layers) {
+                painted.clear();
+                layer.getAnnotations(p0, p1, painted);
+                for (Annotation annotation : painted) {
+                    g.setColor(annotation.getColor());
+                    int start = Math.max(annotation.getStart(), p0);
+                    int end = Math.min(annotation.getEnd(), p1);
+                    if (start < selEnd && end > selStart) {
+                        fillLines(g, a, doc, start, selStart);
+                        fillLines(g, a, doc, selEnd, end);
+                    } else {
+                        fillLines(g, a, doc, start, end);
+                    }
+                }
+            }
+        } catch (BadLocationException ex) {
+            log.log(Level.SEVERE, "Requested: " + ex.offsetRequested(), ex);
+        } finally {
+            g.setColor(saveColor);
+            painted.clear();
+        }
+    }
+
+    /*
+     * Fills [start, end) with one rectangle for each line, up to its last
+     * char
+     */
+    private void fillLines(Graphics g, Shape a, SyntaxDocument doc, int start, int end)
+            throws BadLocationException {
+        while (start < end) {
+            int lineEnd = Math.min(end, doc.getLineEndOffset(start));
+            Rectangle r0 = modelToView(start, a, Position.Bias.Forward).getBounds();
+            Rectangle r1 = modelToView(lineEnd, a, Position.Bias.Backward).getBounds();
+            if (r1.y > r0.y) {
+                // the newline
+                r1 = modelToView(lineEnd - 1, a, Position.Bias.Forward).getBounds();
+            }
+            g.fillRect(r0.x, r0.y, r1.x - r0.x, r0.height);
+            start = doc.getLineEndOffset(start);
+        }
     }
 
     @Override
     protected int drawUnselectedText(Graphics graphics, int x, int y, int p0,
             int p1) {
-        setRenderingHits((Graphics2D) graphics);
         Font saveFont = graphics.getFont();
         Color saveColor = graphics.getColor();
         SyntaxDocument doc = (SyntaxDocument) getDocument();
-        Segment segment = getLineBuffer();
         // Draw the right margin first, if needed.  This way the text overlays
         // the margin
         if (rightMarginColumn > 0) {
-            int m_x = rightMarginColumn * graphics.getFontMetrics().charWidth('m');
-            int h = graphics.getFontMetrics().getHeight();
+            int m_x = rightMarginColumn * metrics.charWidth('m');
+            int h = metrics.getHeight();
             graphics.setColor(rightMarginColor);
             graphics.drawLine(m_x, y, m_x, y - h);
         }
         try {
-            // Colour the parts
-            Iterator<Token> i = doc.getTokens(p0, p1);
+            // whole lines are drawn from their cached glyphs
+            if (glyphCache != null && doc.getLineStartOffset(p0) == p0 && doc.getLineEndOffset(p0) == p1) {
+                int end = glyphCache.drawLine((Graphics2D) graphics, x, y, doc, p0, p1, styles,
+                        DEFAULT_STYLE, this);
+                if (end >= 0) {
+                    return end;
+                }
+            }
+            // the text of the whole line, of which the tokens and the gaps
+            // between them are drawn
+            Segment line = getLineBuffer();
+            doc.getText(p0, p1 - p0, line);
+            TokenBuffer tokens = doc.getTokenBuffer(p0, p1);
+            int n = tokens == null ? 0 : tokens.size();
             int start = p0;
-            while (i.hasNext()) {
-                Token t = i.next();
+            for (int i = n == 0 ? 0 : tokens.indexAfter(p0); i < n; i++) {
+                int s = tokens.getStart(i);
+                if (s >= p1) {
+                    break;
+                }
                 // if there is a gap between the next token start and where we
                 // should be starting (spaces not returned in tokens), then draw
                 // it in the default type
-                if (start < t.start) {
-                    doc.getText(start, t.start - start, segment);
-                    x = DEFAULT_STYLE.drawText(segment, x, y, graphics, this, start);
-                }
-                // t and s are the actual start and length of what we should
-                // put on the screen.  assume these are the whole token....
-                int l = t.length;
-                int s = t.start;
-                // ... unless the token starts before p0:
-                if (s < p0) {
-                    // token is before what is requested. adgust the length and s
-                    l -= (p0 - s);
-                    s = p0;
+                if (start < s) {
+                    x = DEFAULT_STYLE.drawText(part(line, start - p0, s - start), x, y, graphics, this, start);
                 }
-                // if token end (s + l is still the token end pos) is greater 
-                // than p1, then just put up to p1
-                if (s + l > p1) {
-                    l = p1 - s;
-                }
-                doc.getText(s, l, segment);
-                x = styles.drawText(segment, x, y, graphics, this, t);
-                start = t.end();
+                // only the part of the token between p0 and p1
+                s = Math.max(s, p0);
+                int e = Math.min(tokens.getEnd(i), p1);
+                x = styles.getStyle(tokens.getType(i)).drawText(part(line, s - p0, e - s), x, y,
+                        graphics, this, s);
+                start = e;
             }
             // now for any remaining text not tokenized:
             if (start < p1) {
-                doc.getText(start, p1 - start, segment);
-                x = DEFAULT_STYLE.drawText(segment, x, y, graphics, this, start);
+                x = DEFAULT_STYLE.drawText(part(line, start - p0, p1 - start), x, y, graphics, this, start);
             }
         } catch (BadLocationException ex) {
             log.log(Level.SEVERE, "Requested: " + ex.offsetRequested(), ex);
@@ -121,13 +242,23 @@ public class SyntaxView extends PlainView {
         return x;
     }
 
+    /*
+     * Points the reused part segment at count chars of the line, from offset
+     */
+    private Segment part(Segment line, int offset, int count) {
+        part.array = line.array;
+        part.offset = line.offset + offset;
+        part.count = count;
+        return part;
+    }
+
     @Override
     protected int drawSelectedText(Graphics graphics, int x, int y, int p0, int p1)
             throws BadLocationException {
         if (singleColorSelect) {
             if (rightMarginColumn > 0) {
-                int m_x = rightMarginColumn * graphics.getFontMetrics().charWidth('m');
-                int h = graphics.getFontMetrics().getHeight();
+                int m_x = rightMarginColumn * metrics.charWidth('m');
+                int h = metrics.getHeight();
                 graphics.setColor(rightMarginColor);
                 graphics.drawLine(m_x, y, m_x, y - h);
             }
@@ -150,10 +281,69 @@ public class SyntaxView extends PlainView {
     protected void updateDamage(javax.swing.event.DocumentEvent changes,
             Shape a,
             ViewFactory f) {
+        // repaints the edited line, or all lines when lines were added or removed
         super.updateDamage(changes, a, f);
-        java.awt.Component host = getContainer();
-        host.repaint();
+        Document doc = getDocument();
+        if (!(doc instanceof SyntaxDocument)) {
+            getContainer().repaint();
+            return;
+        }
+        // a batch repaints its damaged range once it ends
+        SyntaxDocument sdoc = (SyntaxDocument) doc;
+        if (sdoc.isInBatch()) {
+            return;
+        }
+        // the lines whose tokens changed, like those after an opened
+        // comment.  The repaint manager merges them with the other repaints
+        // of the same frame.
+        int len = sdoc.getLength();
+        int line0 = sdoc.getLineNumberAt(Math.min(sdoc.getDamageStart(), len));
+        int line1 = sdoc.getLineNumberAt(Math.min(sdoc.getDamageEnd(), len));
+        if (line1 > line0) {
+            damageLineRange(line0, line1, a, getContainer());
+        }
     }
+
+    /**
+     * Listens for new tokens from the background parser, and for changed
+     * annotations, while the view is part of a view hierarchy
+     */
+    @Override
+    public void setParent(View parent) {
+        if (getDocument() instanceof SyntaxDocument) {
+            SyntaxDocument doc = (SyntaxDocument) getDocument();
+            if (parent != null) {
+                doc.addPropertyChangeListener(SyntaxDocument.TOKENS, tokensListener);
+                doc.addPropertyChangeListener(SyntaxDocument.ANNOTATIONS, annotationsListener);
+            } else {
+                doc.removePropertyChangeListener(SyntaxDocument.TOKENS, tokensListener);
+                doc.removePropertyChangeListener(SyntaxDocument.ANNOTATIONS, annotationsListener);
+            }
+        }
+        super.setParent(parent);
+    }
+
+    /**
+     * Repaints the lines from p0 to p1
+     */
+    private void repaintRange(int p0, int p1) {
+        Component host = getContainer();
+        if (!(host instanceof JTextComponent)) {
+            return;
+        }
+        int len = getDocument().getLength();
+        try {
+            JTextComponent text = (JTextComponent) host;
+            Rectangle r0 = text.modelToView(Math.max(0, Math.min(p0, len)));
+            Rectangle r1 = text.modelToView(Math.max(0, Math.min(p1, len)));
+            if (r0 != null && r1 != null) {
+                host.repaint(0, r0.y, host.getWidth(), r1.y + r1.height - r0.y);
+            }
+        } catch (BadLocationException ex) {
+            log.log(Level.SEVERE, "Requested: " + ex.offsetRequested(), ex);
+        }
+    }
+
     /**
      * The values for the string key for Text Anti-Aliasing
      */
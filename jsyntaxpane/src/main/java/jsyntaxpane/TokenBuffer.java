@@ -0,0 +1,352 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.regex.Pattern;
+import javax.swing.text.Document;
+
+/**
+ * A list of Tokens stored as columns of primitives: the start, length,
+ * type and pair value of every token are kept in parallel arrays.
+ * This takes about a third of the memory of a List of Token objects, and
+ * lexing into it does not create any objects.  Token objects are only
+ * created when asked for with {@link #get(int)}.
+ *
+ * The tokens are kept in document order.  The columns have a gap at the
+ * last edit, so that shifting the tokens after an edit takes constant time,
+ * see {@link GapBuffer}.
+ *
+ * @author Ayman Al-Sairafi
+ */
+public final class TokenBuffer extends GapBuffer {
+
+    private static final TokenType[] TYPES = TokenType.values();
+    private int[] starts;
+    private int[] lengths;
+    private byte[] types;
+    private byte[] pairs;
+    // matching pairs, built when first needed
+    private PairIndex pairIndex;
+    // occurrences of words, built when first needed
+    private OccurrenceIndex occurrences;
+    // words of a pattern in the tokens, built when first needed
+    private OccurrenceIndex words;
+
+    public TokenBuffer() {
+        this(16);
+    }
+
+    public TokenBuffer(int capacity) {
+        super(Math.max(capacity, 4));
+        capacity = gapLength;
+        starts = new int[capacity];
+        lengths = new int[capacity];
+        types = new byte[capacity];
+        pairs = new byte[capacity];
+    }
+
+    /**
+     * Appends a token
+     */
+    public void add(TokenType type, int start, int length, byte pairValue) {
+        int i = append();
+        pairIndex = null;
+        starts[i] = start;
+        lengths[i] = length;
+        types[i] = (byte) type.ordinal();
+        pairs[i] = pairValue;
+        if (occurrences != null) {
+            occurrences.append(this, size - 1);
+        }
+        if (words != null) {
+            words.append(this, size - 1);
+        }
+    }
+
+    /**
+     * Appends a copy of the given token
+     */
+    public void add(Token t) {
+        add(t.type, t.start, t.length, t.pairValue);
+    }
+
+    public int getStart(int i) {
+        return starts[index(i)] + delta(i);
+    }
+
+    public int getLength(int i) {
+        return lengths[index(i)];
+    }
+
+    public int getEnd(int i) {
+        int ndx = index(i);
+        return starts[ndx] + lengths[ndx] + delta(i);
+    }
+
+    public TokenType getType(int i) {
+        return TYPES[types[index(i)]];
+    }
+
+    public byte getPairValue(int i) {
+        return pairs[index(i)];
+    }
+
+    /**
+     * Creates a Token object for the token at index i
+     */
+    public Token get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        int ndx = index(i);
+        return new Token(TYPES[types[ndx]], starts[ndx] + delta(i), lengths[ndx], pairs[ndx]);
+    }
+
+    /**
+     * Returns the index of the first token that ends after pos, or the
+     * number of tokens if there is none.
+     */
+    public int indexAfter(int pos) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getEnd(mid) <= pos) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the index of the first token that starts at or after pos, or
+     * the number of tokens if there is none.
+     */
+    public int indexFrom(int pos) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getStart(mid) < pos) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the index of the given token, or -1 if it is not in this buffer
+     */
+    public int indexOf(Token t) {
+        for (int i = indexFrom(t.start); i < size && getStart(i) == t.start; i++) {
+            if (getLength(i) == t.length && getType(i) == t.type) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the matching pairs of these tokens
+     */
+    PairIndex getPairIndex() {
+        if (pairIndex == null) {
+            pairIndex = PairIndex.build(this);
+        }
+        return pairIndex;
+    }
+
+    /**
+     * Returns the occurrences of the words of the given types in these
+     * tokens of doc.  If current is false, the tokens do not match the text
+     * of doc, and the ones whose text has not been read are left out.
+     */
+    OccurrenceIndex getOccurrenceIndex(Document doc, Set<TokenType> types, boolean current) {
+        if (occurrences == null || !occurrences.isFor(doc, types)) {
+            occurrences = OccurrenceIndex.build(this, doc, types);
+        }
+        if (current) {
+            occurrences.resolve(this);
+        }
+        return occurrences;
+    }
+
+    /**
+     * Returns the occurrences of the words that pattern matches in the text
+     * of these tokens of doc.  If current is false, the tokens do not match
+     * the text of doc, and the ones whose text has not been read are left
+     * out.
+     */
+    OccurrenceIndex getWordIndex(Document doc, Pattern pattern, boolean current) {
+        if (words == null || !words.isFor(doc, pattern)) {
+            words = OccurrenceIndex.buildWords(this, doc, pattern);
+        }
+        if (current) {
+            words.resolve(this);
+        }
+        return words;
+    }
+
+    /**
+     * Returns the index of the token paired with token i, or -1 if token i
+     * has no pair value or its partner is missing
+     */
+    public int getPartner(int i) {
+        if (getPairValue(i) == 0) {
+            return -1;
+        }
+        PairIndex index = getPairIndex();
+        int partner = index.getPartner(index.entryOf(i));
+        return partner == PairIndex.UNMATCHED ? -1 : index.getToken(partner);
+    }
+
+    /**
+     * Returns how many pairs of the same kind enclose token i, or -1 if
+     * token i has no pair value.  Missing partners are not counted.
+     */
+    public int getPairDepth(int i) {
+        if (getPairValue(i) == 0) {
+            return -1;
+        }
+        PairIndex index = getPairIndex();
+        return index.getDepth(index.entryOf(i));
+    }
+
+    @Override
+    void splice(int from, int to, GapBuffer replacement, int rFrom, int rTo, int shift) {
+        splice(from, to, (TokenBuffer) replacement, rFrom, rTo, shift, true);
+    }
+
+    /**
+     * Like {@link #splice(int, int, GapBuffer, int, int, int)}.  If readable
+     * is false, the new tokens do not match the text of the document yet,
+     * so the occurrences in them are only indexed once they do.
+     */
+    void splice(int from, int to, TokenBuffer replacement, int rFrom, int rTo, int shift,
+            boolean readable) {
+        if (pairIndex != null) {
+            pairIndex.update(this, from, to, replacement, rFrom, rTo);
+        }
+        if (occurrences != null) {
+            occurrences.update(this, from, to, replacement, rFrom, rTo, shift, readable);
+        }
+        if (words != null) {
+            words.update(this, from, to, replacement, rFrom, rTo, shift, readable);
+        }
+        super.splice(from, to, replacement, rFrom, rTo, shift);
+    }
+
+    /**
+     * Removes all tokens, keeping the allocated space
+     */
+    public void clear() {
+        pairIndex = null;
+        occurrences = null;
+        words = null;
+        gapLength += size;
+        gapStart = 0;
+        size = 0;
+        delta = 0;
+    }
+
+    /**
+     * Returns a copy of this buffer, that can be changed independently
+     */
+    public TokenBuffer copy() {
+        TokenBuffer copy = new TokenBuffer(size);
+        for (int i = 0; i < size; i++) {
+            copy.copyFrom(i, this, i);
+        }
+        copy.size = size;
+        copy.gapStart = size;
+        copy.gapLength -= size;
+        copy.pairIndex = pairIndex == null ? null : pairIndex.copy();
+        copy.occurrences = occurrences == null ? null : occurrences.copy();
+        copy.words = words == null ? null : words.copy();
+        return copy;
+    }
+
+    /**
+     * Returns a read only List view of the tokens.  The Token objects are
+     * created as they are asked for.
+     */
+    public List<Token> asList() {
+        return new TokenList();
+    }
+
+    @Override
+    void resize(int capacity) {
+        starts = Arrays.copyOf(starts, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        types = Arrays.copyOf(types, capacity);
+        pairs = Arrays.copyOf(pairs, capacity);
+    }
+
+    @Override
+    void move(int from, int to, int n) {
+        System.arraycopy(starts, from, starts, to, n);
+        System.arraycopy(lengths, from, lengths, to, n);
+        System.arraycopy(types, from, types, to, n);
+        System.arraycopy(pairs, from, pairs, to, n);
+    }
+
+    @Override
+    void shift(int i, int n, int shift) {
+        for (int end = i + n; i < end; i++) {
+            starts[i] += shift;
+        }
+    }
+
+    @Override
+    void copyFrom(int i, GapBuffer source, int index) {
+        TokenBuffer tokens = (TokenBuffer) source;
+        int ndx = tokens.index(index);
+        starts[i] = tokens.starts[ndx] + tokens.delta(index);
+        lengths[i] = tokens.lengths[ndx];
+        types[i] = tokens.types[ndx];
+        pairs[i] = tokens.pairs[ndx];
+    }
+
+    @Override
+    public String toString() {
+        return "TokenBuffer(" + size + " tokens)";
+    }
+
+    private class TokenList extends AbstractList<Token> implements RandomAccess {
+
+        @Override
+        public Token get(int index) {
+            return TokenBuffer.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            return o instanceof Token ? TokenBuffer.this.indexOf((Token) o) : -1;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * A position in the tokens of a SyntaxDocument.  The cursor knows the index
+ * of its token, so moving to the next or previous token takes constant time,
+ * and reading the current token does not create any objects unless
+ * {@link #getToken()} is called.
+ *
+ * Cursors are obtained from {@link SyntaxDocument#getTokenCursor(int)} and
+ * {@link SyntaxDocument#getTokenCursor(Token)}.  Like iterators, they are
+ * only valid until the document is changed.
+ *
+ * @author Ayman Al-Sairafi
+ */
+public final class TokenCursor {
+
+    private final TokenBuffer tokens;
+    private int index;
+
+    TokenCursor(TokenBuffer tokens, int index) {
+        this.tokens = tokens;
+        this.index = index;
+    }
+
+    /**
+     * Returns the index of the current token in the document
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns true if the cursor is on a token, false if it was moved past
+     * the first or last token
+     */
+    public boolean isValid() {
+        return index >= 0 && index < tokens.size();
+    }
+
+    /**
+     * Moves to the next token
+     * @return false if there is no next token
+     */
+    public boolean next() {
+        if (index < tokens.size()) {
+            index++;
+        }
+        return index < tokens.size();
+    }
+
+    /**
+     * Moves to the previous token
+     * @return false if there is no previous token
+     */
+    public boolean previous() {
+        if (index >= 0) {
+            index--;
+        }
+        return index >= 0;
+    }
+
+    /**
+     * Moves to the first token that ends after pos.  That is the token
+     * containing pos, or the one after it if pos is not in a token.
+     * @return false if there is no such token
+     */
+    public boolean seek(int pos) {
+        index = tokens.indexAfter(pos);
+        return isValid();
+    }
+
+    /**
+     * Moves to the token with the given index
+     */
+    public void moveTo(int index) {
+        this.index = index;
+    }
+
+    public int getStart() {
+        return tokens.getStart(index);
+    }
+
+    public int getLength() {
+        return tokens.getLength(index);
+    }
+
+    public int getEnd() {
+        return tokens.getEnd(index);
+    }
+
+    public TokenType getType() {
+        return tokens.getType(index);
+    }
+
+    public byte getPairValue() {
+        return tokens.getPairValue(index);
+    }
+
+    /**
+     * Moves to the token paired with the current one
+     * @return false, without moving, if the current token has no pair value
+     * or its partner is missing
+     */
+    public boolean moveToPair() {
+        int partner = tokens.getPartner(index);
+        if (partner < 0) {
+            return false;
+        }
+        index = partner;
+        return true;
+    }
+
+    /**
+     * Returns true if the current token has a pair value, but no partner
+     */
+    public boolean isUnmatched() {
+        return getPairValue() != 0 && tokens.getPartner(index) < 0;
+    }
+
+    /**
+     * Creates a Token object for the current token
+     */
+    public Token getToken() {
+        return tokens.get(index);
+    }
+
+    /**
+     * Get the text of the current token from the document
+     */
+    public CharSequence getText(Document doc) {
+        Segment text = new Segment();
+        try {
+            doc.getText(getStart(), getLength(), text);
+        } catch (BadLocationException ex) {
+            Logger.getLogger(TokenCursor.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return text;
+    }
+
+    @Override
+    public String toString() {
+        return isValid() ? "TokenCursor(" + index + ": " + getToken() + ")"
+                : "TokenCursor(" + index + ")";
+    }
+}
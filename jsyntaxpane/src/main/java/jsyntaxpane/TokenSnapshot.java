@@ -0,0 +1,145 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.util.List;
+
+/**
+ * The tokens of a {@link SyntaxDocument} as lexed from one version of its
+ * text.  When the document is parsed in the background, a new snapshot is
+ * published to the <code>SyntaxDocument.TOKENS</code> property listeners
+ * each time the background lexer has caught up with the edits.  When a large
+ * document is parsed progressively, a snapshot is published each time the
+ * lexer has covered another part of it, and when a batch of changes ends.
+ *
+ * Snapshots share the tokens of the document, and are only valid until
+ * it is changed, or until the next snapshot of the background parser is
+ * published.  The damaged range tells which part of
+ * the document got new tokens compared to the previous snapshot, so that
+ * views only need to repaint that part.
+ *
+ * @author Ayman Al-Sairafi
+ */
+public final class TokenSnapshot {
+
+    final int version;
+    final TokenBuffer tokens;
+    final CheckpointBuffer checkpoints;
+    final int damageStart;
+    final int damageEnd;
+    // end of the lexed part of the document, or -1 if all of it was lexed
+    final int lexedEnd;
+    // how the tokens were changed from those of the previous version, or
+    // null if they were lexed as a whole
+    final Splice splice;
+
+    TokenSnapshot(int version, TokenBuffer tokens, CheckpointBuffer checkpoints,
+            int damageStart, int damageEnd, int lexedEnd) {
+        this(version, tokens, checkpoints, damageStart, damageEnd, lexedEnd, null);
+    }
+
+    TokenSnapshot(int version, TokenBuffer tokens, CheckpointBuffer checkpoints,
+            int damageStart, int damageEnd, int lexedEnd, Splice splice) {
+        this.version = version;
+        this.tokens = tokens;
+        this.checkpoints = checkpoints;
+        this.damageStart = damageStart;
+        this.damageEnd = damageEnd;
+        this.lexedEnd = lexedEnd;
+        this.splice = splice;
+    }
+
+    /**
+     * Returns the version of the document text these tokens were lexed from.
+     * The version of a document is incremented by every edit.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the tokens, in document order
+     */
+    public List<Token> getTokens() {
+        return tokens.asList();
+    }
+
+    /**
+     * Returns the start of the range whose tokens changed since the previous
+     * snapshot
+     */
+    public int getDamageStart() {
+        return damageStart;
+    }
+
+    /**
+     * Returns the end of the range whose tokens changed since the previous
+     * snapshot
+     */
+    public int getDamageEnd() {
+        return damageEnd;
+    }
+
+    @Override
+    public String toString() {
+        return "TokenSnapshot(" + version + ", " + tokens.size() + " tokens, damaged "
+                + damageStart + "-" + damageEnd + ")";
+    }
+
+    /**
+     * The change relexing made to the tokens and checkpoints of one version:
+     * the elements in [from, to) of each were replaced by the first ones of
+     * the lexed buffer, and the elements after them shifted by shift.  The
+     * background parser keeps its own buffers, and the document makes the
+     * same change to its copy, so neither is ever copied as a whole.
+     */
+    static final class Splice {
+
+        final int tokenFrom;
+        final int tokenTo;
+        final TokenBuffer tokens;
+        final int tokenCount;
+        final int checkpointFrom;
+        final int checkpointTo;
+        final CheckpointBuffer checkpoints;
+        final int shift;
+
+        Splice(int tokenFrom, int tokenTo, TokenBuffer tokens, int tokenCount,
+                int checkpointFrom, int checkpointTo, CheckpointBuffer checkpoints, int shift) {
+            this.tokenFrom = tokenFrom;
+            this.tokenTo = tokenTo;
+            this.tokens = tokens;
+            this.tokenCount = tokenCount;
+            this.checkpointFrom = checkpointFrom;
+            this.checkpointTo = checkpointTo;
+            this.checkpoints = checkpoints;
+            this.shift = shift;
+        }
+
+        /**
+         * Makes this change to other buffers holding the same elements.  If
+         * readable is false, the document has been changed since the tokens
+         * were lexed, see {@link TokenBuffer#splice(int, int, TokenBuffer, int, int, int, boolean)}.
+         */
+        void apply(TokenBuffer target, CheckpointBuffer targetCheckpoints, boolean readable) {
+            target.splice(tokenFrom, tokenTo, tokens, 0, tokenCount, shift, readable);
+            targetCheckpoints.splice(checkpointFrom, checkpointTo, checkpoints, 0, checkpoints.size(), shift);
+            // the kept checkpoints were reached through the new ones
+            if (!checkpoints.isEmpty()) {
+                targetCheckpoints.raiseLookaheads(checkpointFrom + checkpoints.size(),
+                        checkpoints.getLookahead(checkpoints.size() - 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane.actions;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Segment;
+import jsyntaxpane.SyntaxDocument;
+
+/**
+ * Finds the match of a pattern that comes before a position of a document,
+ * looking at the text before that position only, and no further back than
+ * the match.
+ *
+ * Literal patterns are searched for with a Boyer-Moore-Horspool scan that
+ * goes backwards from the position, a chunk at a time.  Other patterns are
+ * matched forwards in a window before the position, which is doubled until
+ * it has a match.  Either way, the cost depends on the distance to the match,
+ * not on the size of the document.  When the search index of the document
+ * knows where the matches can be, only those ranges are searched.
+ *
+ * @author Ayman Al-Sairafi
+ */
+public final class BackwardSearch {
+
+    // the size of the first chunk or window searched, doubled each time
+    private static final int FIRST_WINDOW = 4 * 1024;
+    private static final int MAX_CHUNK = 1024 * 1024;
+
+    private BackwardSearch() {
+    }
+
+    /**
+     * Finds the last match of pattern in doc that ends before end, or ends
+     * at end and is not empty.
+     * @return the start and end of the match, or null if there is none
+     */
+    public static int[] findPrevious(SyntaxDocument doc, Pattern pattern, int end) {
+        end = Math.min(end, doc.getLength());
+        int[] ranges = doc.getSearchRanges(pattern);
+        String literal = getLiteral(pattern);
+        Matcher matcher = literal == null ? pattern.matcher(doc.getVersionText()) : null;
+        if (ranges == null) {
+            return literal != null
+                    ? findLiteral(doc, literal, isIgnoreCase(pattern), 0, end)
+                    : findInWindows(doc, matcher, end, doc.getLineEndOffset(end));
+        }
+        // the ranges before end, from the last one
+        for (int i = ranges.length / 2 - 1; i >= 0; i--) {
+            if (ranges[2 * i] >= end) {
+                continue;
+            }
+            int[] match = literal != null
+                    ? findLiteral(doc, literal, isIgnoreCase(pattern), ranges[2 * i],
+                            Math.min(ranges[2 * i + 1], end))
+                    : findLast(matcher, ranges[2 * i], ranges[2 * i + 1], end);
+            if (match != null) {
+                return match;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Returns the text of a literal pattern that the Horspool scan can look
+     * for, or null
+     */
+    private static String getLiteral(Pattern pattern) {
+        int flags = pattern.flags();
+        if ((flags & Pattern.LITERAL) == 0 || pattern.pattern().isEmpty()
+                || (flags & (Pattern.UNICODE_CASE | Pattern.CANON_EQ)) != 0) {
+            return null;
+        }
+        return pattern.pattern();
+    }
+
+    private static boolean isIgnoreCase(Pattern pattern) {
+        return (pattern.flags() & Pattern.CASE_INSENSITIVE) != 0;
+    }
+
+    /*
+     * Matches in windows before end that double in size, until one has a
+     * match.  The windows go on to the end of the line of end, so that the
+     * matches that do not span lines are not cut at end, and start at the
+     * start of a line, moved back while a match runs into them, so that the
+     * matches are not cut at the start either.
+     */
+    private static int[] findInWindows(SyntaxDocument doc, Matcher matcher, int end, int lineEnd) {
+        int window = FIRST_WINDOW;
+        int start = -1;
+        int next;
+        do {
+            next = Math.max(0, end - window);
+            window *= 2;
+            next = doc.getLineStartOffset(next);
+            if (start >= 0 && next >= start) {
+                // no further back than the last window
+                continue;
+            }
+            start = getWindowStart(doc, matcher, next, lineEnd);
+            int[] match = findLast(matcher, start, lineEnd, end);
+            if (match != null) {
+                return match;
+            }
+        } while (start > 0);
+        return null;
+    }
+
+    /*
+     * Returns the line start from which to match up to lineEnd: start, or
+     * the start of an earlier line if a match from there runs into start
+     */
+    private static int getWindowStart(SyntaxDocument doc, Matcher matcher, int start, int lineEnd) {
+        matcher.useTransparentBounds(true);
+        matcher.useAnchoringBounds(false);
+        while (start > 0) {
+            // only a match starting at start can be the end of a longer one
+            matcher.region(start, lineEnd);
+            if (!matcher.find() || matcher.start() > start) {
+                return start;
+            }
+            int before = doc.getLineStartOffset(start - 1);
+            matcher.region(before, lineEnd);
+            boolean across = false;
+            while (!across && matcher.find() && matcher.start() < start) {
+                across = matcher.end() > start;
+            }
+            if (!across) {
+                return start;
+            }
+            start = before;
+        }
+        return start;
+    }
+
+    /*
+     * Returns the last match found from start to rangeEnd that ends before
+     * end, or at end if it is not empty
+     */
+    private static int[] findLast(Matcher matcher, int start, int rangeEnd, int end) {
+        matcher.region(start, rangeEnd);
+        matcher.useTransparentBounds(true);
+        matcher.useAnchoringBounds(false);
+        int[] match = null;
+        while (matcher.find() && matcher.start() < end) {
+            // an empty match at end starts there, and is not before it
+            if (matcher.end() <= end) {
+                if (match == null) {
+                    match = new int[2];
+                }
+                match[0] = matcher.start();
+                match[1] = matcher.end();
+            }
+        }
+        return match;
+    }
+
+    /*
+     * Returns the last occurrence of literal from start to end, looking at
+     * chunks of the text from end backwards.  Like a CASE_INSENSITIVE
+     * Pattern, ignoring case only compares US-ASCII letters without case.
+     */
+    private static int[] findLiteral(SyntaxDocument doc, String literal, boolean ignoreCase,
+            int start, int end) {
+        int m = literal.length();
+        char[] p = new char[m];
+        for (int j = 0; j < m; j++) {
+            p[j] = fold(literal.charAt(j), ignoreCase);
+        }
+        // how far to move the window back when its first char is c: to
+        // the first place after the start of p where c is, by its low byte
+        int[] shifts = new int[256];
+        for (int c = 0; c < 256; c++) {
+            shifts[c] = m;
+        }
+        for (int j = m - 1; j >= 1; j--) {
+            shifts[p[j] & 0xff] = j;
+        }
+        Segment segment = new Segment();
+        int chunk = Math.max(FIRST_WINDOW, 2 * m);
+        int hi = end;
+        try {
+            while (hi - start >= m) {
+                int lo = Math.max(start, hi - chunk);
+                doc.getText(lo, hi - lo, segment);
+                char[] a = segment.array;
+                int off = segment.offset;
+                int s = hi - lo - m;
+                while (s >= 0) {
+                    int j = 0;
+                    while (j < m && fold(a[off + s + j], ignoreCase) == p[j]) {
+                        j++;
+                    }
+                    if (j == m) {
+                        return new int[] { lo + s, lo + s + m };
+                    }
+                    s -= shifts[fold(a[off + s], ignoreCase) & 0xff];
+                }
+                if (lo == start) {
+                    break;
+                }
+                // the next chunk ends with the start of the last
+                // window that did not fit in this one
+                hi = lo + m - 1;
+                chunk = Math.max(Math.min(2 * chunk, MAX_CHUNK), chunk);
+            }
+        } catch (BadLocationException ex) {
+            Logger.getLogger(BackwardSearch.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return null;
+    }
+
+    private static char fold(char c, boolean ignoreCase) {
+        return ignoreCase && c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+}
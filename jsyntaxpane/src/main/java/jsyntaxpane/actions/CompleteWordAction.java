@@ -15,10 +15,13 @@ package jsyntaxpane.actions;
 
 import java.awt.event.ActionEvent;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.swing.text.JTextComponent;
+import jsyntaxpane.OccurrenceIndex;
 import jsyntaxpane.SyntaxDocument;
 import jsyntaxpane.Token;
 import jsyntaxpane.actions.gui.ComboCompletionDialog;
@@ -36,6 +39,11 @@ import jsyntaxpane.util.StringUtils;
  * This Regexp is configurable with {@code ACTION_NAME.WordsRegexp}.
  * The default Regexp is \w+ (any word char)
  *
+ * The words are looked up in the word index of the document, see
+ * {@link SyntaxDocument#getWordIndex(Pattern)}, which is kept up to date
+ * as the document is edited, so the text is not searched for each
+ * completion.
+ *
  * @author Ayman Al-Sairafi
  */
 public class CompleteWordAction extends DefaultSyntaxAction {
@@ -56,11 +64,20 @@ public class CompleteWordAction extends DefaultSyntaxAction {
 
         sdoc.readLock();
         List<String> matches = new ArrayList<String>();
-        Matcher m = sdoc.getMatcher(wordsPattern, 0, current.start);
-        addWords(m, cw, matches);
-        m = sdoc.getMatcher(wordsPattern, current.end(), sdoc.getLength() - current.end());
-        addWords(m, cw, matches);
-        sdoc.readUnlock();
+        try {
+            OccurrenceIndex index = sdoc.getWordIndex(wordsPattern);
+            if (index != null) {
+                addWords(index, current, cw, matches);
+            } else {
+                Set<String> found = new HashSet<String>();
+                Matcher m = sdoc.getMatcher(wordsPattern, 0, current.start);
+                addWords(m, cw, found, matches);
+                m = sdoc.getMatcher(wordsPattern, current.end(), sdoc.getLength() - current.end());
+                addWords(m, cw, found, matches);
+            }
+        } finally {
+            sdoc.readUnlock();
+        }
         if (matches.size() == 0) {
             return;
         }
@@ -79,20 +96,38 @@ public class CompleteWordAction extends DefaultSyntaxAction {
 
     }
 
+    /**
+     * Add the words of the index that match the word abbr to matches List,
+     * leaving out the word being completed
+     * @param index word index of the document
+     * @param current the word being completed
+     * @param abbr abbriviated word
+     * @param matches List of matches
+     */
+    private void addWords(OccurrenceIndex index, Token current, String abbr, List<String> matches) {
+        int k = index.indexFrom(current.start);
+        OccurrenceIndex.Word self = k < index.size() && index.getStart(k) == current.start
+                && index.getEnd(k) == current.end() ? index.getWord(k) : null;
+        for (OccurrenceIndex.Word word : index.getCompletions(abbr)) {
+            if (word != self || word.getCount() > 1) {
+                matches.add(word.getText());
+            }
+        }
+    }
+
     /**
      * Add words from the matcher m that match the word abbr to matches
      * List
      * @param m matcher instance, could be null, to iterate through
      * @param abbr abbriviated word
+     * @param found the words already in matches
      * @param matches List of matches
      */
-    private void addWords(Matcher m, String abbr, List<String> matches) {
+    private void addWords(Matcher m, String abbr, Set<String> found, List<String> matches) {
         while (m != null && m.find()) {
             String word = m.group();
-            if (StringUtils.camelCaseMatch(word, abbr)) {
-                if (!matches.contains(word)) {
-                    matches.add(word);
-                }
+            if (StringUtils.camelCaseMatch(word, abbr) && found.add(word)) {
+                matches.add(word);
             }
         }
     }
@@ -66,6 +66,10 @@ abstract public class DefaultSyntaxAction extends TextAction implements SyntaxAc
 		JTextComponent text = getTextComponent(e);
 		SyntaxDocument sdoc = ActionUtils.getSyntaxDocument(text);
 		if (text != null) {
+			// actions that make several changes batch them themselves, see
+			// SyntaxDocument.beginBatch(): typed chars are still combined
+			// into one undo edit per line, and an action that reads the
+			// tokens after a change sees them lexed
 			actionPerformed(text, sdoc, text.getCaretPosition(), e);
 		}
 	}
@@ -24,6 +24,8 @@ import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.JTextComponent;
+import javax.swing.text.Segment;
+import jsyntaxpane.SearchIndex;
 import jsyntaxpane.SyntaxDocument;
 import jsyntaxpane.actions.gui.QuickFindDialog;
 import jsyntaxpane.actions.gui.ReplaceDialog;
@@ -117,8 +119,10 @@ public class DocumentSearchData {
 
 	/**
 	 * Perform a replace all operation on the given component.
-	 * Note that this create a new duplicate String big as the entire
-	 * document and then assign it to the target text component
+	 * Each match is replaced by its own edit, from the last match to the
+	 * first, so that the positions, markers and caret outside the matches
+	 * are kept.  The edits are made in one batch of the document: they are
+	 * undone at once, and only the replaced text is lexed again.
 	 * @param target
 	 * @param replacement
 	 */
@@ -133,12 +137,103 @@ public class DocumentSearchData {
 		if (getPattern() == null) {
 			return;
 		}
-		Matcher matcher = sDoc.getMatcher(getPattern());
-		String newText = matcher.replaceAll(replacement);
+		int[] bounds = FindAll.findAll(sDoc, getPattern());
+		int count = bounds.length / 2;
+		// the replacement only has to be expanded for each match if it
+		// refers to groups
+		boolean expand = replacement.indexOf('$') >= 0 || replacement.indexOf('\\') >= 0;
+		String[] texts = expand ? new String[count] : null;
+		if (expand) {
+			Matcher matcher = getPattern().matcher(sDoc.getVersionText());
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < count; i++) {
+				// finds the same match again, to get its groups
+				matcher.find(bounds[2 * i]);
+				sb.setLength(0);
+				expandReplacement(matcher, replacement, sb);
+				texts[i] = sb.toString();
+			}
+		}
+		sDoc.beginBatch();
 		try {
-			sDoc.replace(0, sDoc.getLength(), newText, null);
+			Segment seg = new Segment();
+			for (int i = count - 1; i >= 0; i--) {
+				int start = bounds[2 * i];
+				int end = bounds[2 * i + 1];
+				String text = expand ? texts[i] : replacement;
+				// only change the text that differs from the replacement
+				sDoc.getText(start, end - start, seg);
+				int prefix = 0;
+				int max = Math.min(seg.count, text.length());
+				while (prefix < max && seg.array[seg.offset + prefix] == text.charAt(prefix)) {
+					prefix++;
+				}
+				int suffix = 0;
+				max -= prefix;
+				while (suffix < max && seg.array[seg.offset + seg.count - 1 - suffix]
+					== text.charAt(text.length() - 1 - suffix)) {
+					suffix++;
+				}
+				if (prefix + suffix == seg.count && prefix + suffix == text.length()) {
+					continue;
+				}
+				sDoc.replace(start + prefix, end - start - prefix - suffix,
+					text.substring(prefix, text.length() - suffix), null);
+			}
 		} catch (BadLocationException ex) {
 			Logger.getLogger(DocumentSearchData.class.getName()).log(Level.SEVERE, null, ex);
+		} finally {
+			sDoc.endBatch();
+		}
+	}
+
+	/*
+	 * Appends replacement to sb with its group references replaced by the
+	 * groups of the last match of matcher, as Matcher.appendReplacement
+	 * does, but without the text before the match
+	 */
+	private static void expandReplacement(Matcher matcher, String replacement, StringBuilder sb) {
+		int cursor = 0;
+		while (cursor < replacement.length()) {
+			char c = replacement.charAt(cursor++);
+			if (c == '\\') {
+				if (cursor == replacement.length()) {
+					throw new IllegalArgumentException("character to be escaped is missing");
+				}
+				sb.append(replacement.charAt(cursor++));
+			} else if (c != '$') {
+				sb.append(c);
+			} else if (cursor == replacement.length()) {
+				throw new IllegalArgumentException("Illegal group reference: group index is missing");
+			} else if (replacement.charAt(cursor) == '{') {
+				int end = replacement.indexOf('}', cursor);
+				if (end < 0) {
+					throw new IllegalArgumentException("named capturing group is missing trailing '}'");
+				}
+				String group = matcher.group(replacement.substring(cursor + 1, end));
+				if (group != null) {
+					sb.append(group);
+				}
+				cursor = end + 1;
+			} else {
+				int ref = replacement.charAt(cursor++) - '0';
+				if (ref < 0 || ref > 9) {
+					throw new IllegalArgumentException("Illegal group reference");
+				}
+				// as many more digits as still make a group number
+				while (cursor < replacement.length()) {
+					int digit = replacement.charAt(cursor) - '0';
+					if (digit < 0 || digit > 9 || ref * 10 + digit > matcher.groupCount()) {
+						break;
+					}
+					ref = ref * 10 + digit;
+					cursor++;
+				}
+				String group = matcher.group(ref);
+				if (group != null) {
+					sb.append(group);
+				}
+			}
 		}
 	}
 
@@ -155,7 +250,9 @@ public class DocumentSearchData {
 	}
 
 	/**
-	 * FInd the previous match
+	 * Find the previous match: the last one that ends before the selection,
+	 * or at its start.  Only the text before the selection is searched, see
+	 * {@link BackwardSearch}.
 	 * @param target
 	 * @return
 	 */
@@ -168,23 +265,9 @@ public class DocumentSearchData {
 			return false;
 		}
 		int dot = target.getSelectionStart();
-		Matcher matcher = sDoc.getMatcher(getPattern());
-		if (matcher == null) {
-			return false;
-		}
-		// we have no way of jumping to last match, so we need to
-		// go throw all matches, and stop when we reach current pos
-		int start = -1;
-		int end = -1;
-		while (matcher.find()) {
-			if (matcher.end() >= dot) {
-				break;
-			}
-			start = matcher.start();
-			end = matcher.end();
-		}
-		if (end > 0) {
-			target.select(start, end);
+		int[] match = BackwardSearch.findPrevious(sDoc, getPattern(), dot);
+		if (match != null) {
+			target.select(match[0], match[1]);
 			return true;
 		} else {
 			return false;
@@ -202,42 +285,33 @@ public class DocumentSearchData {
 	}
 	
 	public boolean doFindNext(JTextComponent target, boolean isReplace) {
-            if (getPattern() == null) {
-                    return false;
-            }
-            SyntaxDocument sDoc = ActionUtils.getSyntaxDocument(target);
-            if (sDoc == null) {
-                    return false;
-            }
-            int start = target.getSelectionEnd();
-            if (target.getSelectionEnd() == target.getSelectionStart() && !isReplace) {
-                    // we must advance the position by one, otherwise we will find
-                    // the same text again
-                    start++;
-            }
-            if (start >= sDoc.getLength()) {
-                    start = sDoc.getLength();
-            }
-            Matcher matcher = sDoc.getMatcher(getPattern(), start);
-            if (matcher != null && matcher.find()) {
-                    // since we used an offset in the matcher, the matcher location
-                    // MUST be offset by that location
-                    target.select(matcher.start() + start, matcher.end() + start);
-                    return true;
-            } else {
-                    if (isWrap()) {
-                            matcher = sDoc.getMatcher(getPattern());
-                            if (matcher != null && matcher.find()) {
-                                    target.select(matcher.start(), matcher.end());
-                                    return true;
-                            } else {
-                                    return false;
-                            }
-                    } else {
-                            return false;
-                    }
-            }
-    }
+		if (getPattern() == null) {
+			return false;
+		}
+		SyntaxDocument sDoc = ActionUtils.getSyntaxDocument(target);
+		if (sDoc == null || sDoc.getLength() == 0) {
+			return false;
+		}
+		int start = target.getSelectionEnd();
+		if (target.getSelectionEnd() == target.getSelectionStart() && !isReplace) {
+			// we must advance the position by one, otherwise we will find
+			// the same text again
+			start++;
+		}
+		if (start >= sDoc.getLength()) {
+			start = sDoc.getLength();
+		}
+		// the matcher reads the text it looks at only, which is little
+		// when the search index narrows the search
+		Matcher matcher = getPattern().matcher(sDoc.getVersionText());
+		int[] ranges = sDoc.getSearchRanges(getPattern());
+		if (SearchIndex.find(matcher, ranges, start)
+			|| (isWrap() && SearchIndex.find(matcher, ranges, 0))) {
+			target.select(matcher.start(), matcher.end());
+			return true;
+		}
+		return false;
+	}
 
 	/**
 	 * Display an OptionPane dialog that the search string is not found
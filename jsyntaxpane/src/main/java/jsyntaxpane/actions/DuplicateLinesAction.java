@@ -33,6 +33,7 @@ public class DuplicateLinesAction extends DefaultSyntaxAction {
     @Override
     public void actionPerformed(JTextComponent target, SyntaxDocument sdoc,
             int dot, ActionEvent e) {
+        sdoc.beginBatch();
         try {
             int st = sdoc.getLineStartOffset(target.getSelectionStart());
             int en = sdoc.getLineEndOffset(target.getSelectionEnd());
@@ -40,6 +41,8 @@ public class DuplicateLinesAction extends DefaultSyntaxAction {
             sdoc.insertString(st, dupLines, null);
         } catch (BadLocationException ex) {
             Logger.getLogger(DuplicateLinesAction.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            sdoc.endBatch();
         }
     }
 }
@@ -0,0 +1,511 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane.actions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import jsyntaxpane.SearchIndex;
+import jsyntaxpane.SyntaxDocument;
+
+/**
+ * Finds all the matches of a pattern in a document, as mark all and replace
+ * all need them.
+ *
+ * Large documents are cut in chunks that are matched in parallel.  Each
+ * chunk is matched with the text after it that a match starting in the
+ * chunk can reach, so the pattern must have a maximum match length: those
+ * with unbounded repeats or back references are matched in one go.  The
+ * matches of the chunks are then joined in order.  Where a match runs into
+ * the next chunk, the matches after it are found again from its end until
+ * they are the same as those of the chunk.  So the result is the same as
+ * that of one matcher going through the whole text.
+ *
+ * The document is read locked while it is searched, and the chunks read its
+ * content without locking it.
+ *
+ * @author Ayman Al-Sairafi
+ */
+public final class FindAll {
+
+    // documents smaller than this are matched in one go
+    private static final int PARALLEL_LENGTH = 1024 * 1024;
+    private static final int MIN_CHUNK = 256 * 1024;
+    // patterns that may match more than this are matched in one go
+    private static final int MAX_MATCH_LENGTH = 64 * 1024;
+    // chunks per thread, so that the threads finish at about the same time
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private FindAll() {
+    }
+
+    /**
+     * Finds all the matches of pattern in doc, as matcher.find() does when
+     * called until it returns false.
+     * @return the start and end of each match, in document order
+     */
+    public static int[] findAll(final SyntaxDocument doc, final Pattern pattern) {
+        final int[][] result = new int[1][];
+        doc.render(new Runnable() {
+
+            @Override
+            public void run() {
+                CharSequence text = doc.getContentChars();
+                int[] ranges = doc.getSearchRanges(pattern);
+                int maxLength = getMaxLength(pattern);
+                int threads = ForkJoinPool.getCommonPoolParallelism();
+                if (ranges != null || maxLength < 0 || maxLength > MAX_MATCH_LENGTH
+                        || text.length() < PARALLEL_LENGTH || threads < 2) {
+                    result[0] = findInRanges(pattern.matcher(text), ranges, text.length());
+                } else {
+                    int chunks = Math.max(2, Math.min(text.length() / MIN_CHUNK,
+                            threads * CHUNKS_PER_THREAD));
+                    result[0] = findInChunks(pattern, text, maxLength, chunks);
+                }
+            }
+        });
+        return result[0];
+    }
+
+    /*
+     * Finds the matches one after the other, in the ranges of the search
+     * index if they are not null
+     */
+    private static int[] findInRanges(Matcher matcher, int[] ranges, int length) {
+        Matches matches = new Matches();
+        int pos = 0;
+        while (pos <= length && SearchIndex.find(matcher, ranges, pos)) {
+            matches.add(matcher.start(), matcher.end());
+            pos = matches.next();
+        }
+        return matches.toArray();
+    }
+
+    private static int[] findInChunks(final Pattern pattern, final CharSequence text,
+            final int maxLength, int count) {
+        final int length = text.length();
+        final int[] starts = new int[count + 1];
+        for (int k = 0; k <= count; k++) {
+            starts[k] = (int) ((long) length * k / count);
+        }
+        List<Callable<int[]>> tasks = new ArrayList<Callable<int[]>>(count);
+        for (int k = 0; k < count; k++) {
+            final int chunk = k;
+            tasks.add(new Callable<int[]>() {
+
+                @Override
+                public int[] call() {
+                    Matcher matcher = newMatcher(pattern, text);
+                    matcher.region(starts[chunk], regionEnd(starts, chunk, maxLength, length));
+                    Matches matches = new Matches();
+                    int limit = limit(starts, chunk, length);
+                    while (matcher.find() && matcher.start() < limit) {
+                        matches.add(matcher.start(), matcher.end());
+                    }
+                    return matches.toArray();
+                }
+            });
+        }
+        List<Future<int[]>> results = ForkJoinPool.commonPool().invokeAll(tasks);
+        Matches matches = new Matches();
+        Matcher matcher = null;
+        int pos = 0;
+        try {
+            for (int k = 0; k < count; k++) {
+                int[] found = results.get(k).get();
+                int i = 0;
+                if (pos > starts[k]) {
+                    // the last match ran into this chunk: match from its end
+                    // until a match of the chunk is found again
+                    if (matcher == null) {
+                        matcher = newMatcher(pattern, text);
+                    }
+                    matcher.region(pos, regionEnd(starts, k, maxLength, length));
+                    int limit = limit(starts, k, length);
+                    boolean synced = false;
+                    while (!synced && matcher.find() && matcher.start() < limit) {
+                        while (i < found.length && found[i] < matcher.start()) {
+                            i += 2;
+                        }
+                        synced = i < found.length && found[i] == matcher.start()
+                                && found[i + 1] == matcher.end();
+                        if (!synced) {
+                            matches.add(matcher.start(), matcher.end());
+                        }
+                    }
+                    if (!synced) {
+                        i = found.length;
+                    }
+                }
+                for (; i < found.length; i += 2) {
+                    matches.add(found[i], found[i + 1]);
+                }
+                if (!matches.isEmpty()) {
+                    pos = matches.next();
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return findInRanges(pattern.matcher(text), null, length);
+        } catch (ExecutionException ex) {
+            Logger.getLogger(FindAll.class.getName()).log(Level.SEVERE, null, ex);
+            return findInRanges(pattern.matcher(text), null, length);
+        }
+        return matches.toArray();
+    }
+
+    private static Matcher newMatcher(Pattern pattern, CharSequence text) {
+        Matcher matcher = pattern.matcher(text);
+        matcher.useTransparentBounds(true);
+        matcher.useAnchoringBounds(false);
+        return matcher;
+    }
+
+    /*
+     * Returns where the matching of chunk k stops: a match that starts in the
+     * chunk ends at most maxLength chars after its end
+     */
+    private static int regionEnd(int[] starts, int k, int maxLength, int length) {
+        return (int) Math.min(length, (long) starts[k + 1] + maxLength);
+    }
+
+    /*
+     * Returns the offset that the matches of chunk k start before.  The last
+     * chunk also has the empty match at the end of the text.
+     */
+    private static int limit(int[] starts, int k, int length) {
+        return k + 2 == starts.length ? length + 1 : starts[k + 1];
+    }
+
+    /**
+     * Returns the most chars a match of pattern can have, or -1 if there is
+     * no such limit, or it cannot be told.  Classes and the dot count as two
+     * chars, as they match a supplementary code point.
+     */
+    static int getMaxLength(Pattern pattern) {
+        int flags = pattern.flags();
+        if ((flags & Pattern.LITERAL) != 0) {
+            return (flags & Pattern.CANON_EQ) != 0 ? -1 : pattern.pattern().length();
+        }
+        if ((flags & (Pattern.COMMENTS | Pattern.CANON_EQ)) != 0) {
+            return -1;
+        }
+        Parser parser = new Parser(pattern.pattern());
+        long max = parser.alternation();
+        return parser.pos < parser.p.length() || max > Integer.MAX_VALUE ? -1 : (int) max;
+    }
+
+    /*
+     * Reads a regular expression and adds up the most chars its parts can
+     * match, -1 standing for no limit
+     */
+    private static final class Parser {
+
+        private final String p;
+        private int pos;
+
+        Parser(String p) {
+            this.p = p;
+        }
+
+        /*
+         * Alternatives, up to the end of the group or the expression
+         */
+        long alternation() {
+            long max = sequence();
+            while (max >= 0 && pos < p.length() && p.charAt(pos) == '|') {
+                pos++;
+                long next = sequence();
+                max = next < 0 ? -1 : Math.max(max, next);
+            }
+            return max;
+        }
+
+        private long sequence() {
+            long sum = 0;
+            while (pos < p.length() && p.charAt(pos) != '|' && p.charAt(pos) != ')') {
+                long atom = atom();
+                long repeat = atom < 0 ? 0 : quantifier();
+                if (atom < 0 || repeat < 0) {
+                    return -1;
+                }
+                sum += atom * repeat;
+                if (sum > Integer.MAX_VALUE) {
+                    return -1;
+                }
+            }
+            return sum;
+        }
+
+        private long atom() {
+            char c = p.charAt(pos++);
+            switch (c) {
+                case '(':
+                    return group();
+                case '[':
+                    return skipClass() ? 2 : -1;
+                case '\\':
+                    return escape();
+                case '.':
+                    return 2;
+                case '^':
+                case '$':
+                    return 0;
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    // a quantifier without anything to repeat
+                    return -1;
+                default:
+                    return 1;
+            }
+        }
+
+        private long group() {
+            boolean lookaround = false;
+            if (pos < p.length() && p.charAt(pos) == '?') {
+                pos++;
+                char d = pos < p.length() ? p.charAt(pos) : 0;
+                if (d == ':' || d == '>') {
+                    pos++;
+                } else if (d == '=' || d == '!') {
+                    pos++;
+                    lookaround = true;
+                } else if (d == '<' && pos + 1 < p.length()
+                        && (p.charAt(pos + 1) == '=' || p.charAt(pos + 1) == '!')) {
+                    pos += 2;
+                    lookaround = true;
+                } else if (d == '<') {
+                    // a named group
+                    pos = p.indexOf('>', pos);
+                    if (pos < 0) {
+                        return -1;
+                    }
+                    pos++;
+                } else {
+                    // inline flags, which may turn on comments
+                    int end = pos;
+                    while (end < p.length() && p.charAt(end) != ')' && p.charAt(end) != ':') {
+                        if (p.charAt(end) == 'x') {
+                            return -1;
+                        }
+                        end++;
+                    }
+                    if (end == p.length()) {
+                        return -1;
+                    }
+                    pos = end + 1;
+                    if (p.charAt(end) == ')') {
+                        return 0;
+                    }
+                }
+            }
+            long max = alternation();
+            if (max < 0 || pos >= p.length() || p.charAt(pos) != ')') {
+                return -1;
+            }
+            pos++;
+            return lookaround ? 0 : max;
+        }
+
+        /*
+         * Skips a class, which may have classes in it, after its [
+         */
+        private boolean skipClass() {
+            int depth = 1;
+            if (pos < p.length() && p.charAt(pos) == '^') {
+                pos++;
+            }
+            // a ] right after [ is a char of the class
+            if (pos < p.length() && p.charAt(pos) == ']') {
+                pos++;
+            }
+            while (pos < p.length()) {
+                char c = p.charAt(pos++);
+                if (c == '\\') {
+                    if (pos < p.length() && p.charAt(pos) == 'Q') {
+                        pos = p.indexOf("\\E", pos);
+                        if (pos < 0) {
+                            return false;
+                        }
+                    }
+                    pos++;
+                } else if (c == '[') {
+                    depth++;
+                } else if (c == ']' && --depth == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private long escape() {
+            if (pos == p.length()) {
+                return -1;
+            }
+            char e = p.charAt(pos++);
+            switch (e) {
+                case 'Q': {
+                    int end = p.indexOf("\\E", pos);
+                    int n = (end < 0 ? p.length() : end) - pos;
+                    pos = end < 0 ? p.length() : end + 2;
+                    // only the last char of the quote is repeated
+                    return n;
+                }
+                case 'b':
+                case 'B':
+                case 'A':
+                case 'z':
+                case 'Z':
+                    return 0;
+                case 'R':
+                    return 2;
+                case 'G':
+                case 'X':
+                case 'k':
+                    // depends on the previous match, a grapheme or a group
+                    return -1;
+                case 'x':
+                    if (pos < p.length() && p.charAt(pos) == '{') {
+                        return skipBraces() ? 2 : -1;
+                    }
+                    pos += 2;
+                    return 1;
+                case 'u':
+                    pos += 4;
+                    return 1;
+                case 'c':
+                    pos++;
+                    return 1;
+                case '0':
+                    for (int n = 0; n < 3 && pos < p.length()
+                            && p.charAt(pos) >= '0' && p.charAt(pos) <= '7'; n++) {
+                        pos++;
+                    }
+                    return 1;
+                case 'p':
+                case 'P':
+                case 'N':
+                    if (pos < p.length() && p.charAt(pos) == '{') {
+                        return skipBraces() ? 2 : -1;
+                    }
+                    pos++;
+                    return 2;
+                default:
+                    if (e >= '1' && e <= '9') {
+                        // a back reference
+                        return -1;
+                    }
+                    return Character.isLetter(e) ? 2 : 1;
+            }
+        }
+
+        private boolean skipBraces() {
+            pos = p.indexOf('}', pos);
+            if (pos < 0) {
+                pos = p.length();
+                return false;
+            }
+            pos++;
+            return true;
+        }
+
+        /*
+         * Reads the quantifier after an atom, if any, and returns the most
+         * times the atom can be repeated
+         */
+        private long quantifier() {
+            if (pos == p.length()) {
+                return 1;
+            }
+            char c = p.charAt(pos);
+            long max;
+            if (c == '?') {
+                pos++;
+                max = 1;
+            } else if (c == '*' || c == '+') {
+                return -1;
+            } else if (c == '{') {
+                int end = p.indexOf('}', pos);
+                if (end < 0) {
+                    return -1;
+                }
+                String bounds = p.substring(pos + 1, end);
+                int comma = bounds.indexOf(',');
+                String upper = comma < 0 ? bounds : bounds.substring(comma + 1);
+                if (upper.isEmpty() || upper.length() > 9) {
+                    return -1;
+                }
+                for (int i = 0; i < upper.length(); i++) {
+                    if (upper.charAt(i) < '0' || upper.charAt(i) > '9') {
+                        return -1;
+                    }
+                }
+                max = Long.parseLong(upper);
+                pos = end + 1;
+            } else {
+                return 1;
+            }
+            // lazy or possessive
+            if (pos < p.length() && (p.charAt(pos) == '?' || p.charAt(pos) == '+')) {
+                pos++;
+            }
+            return max;
+        }
+    }
+
+    /*
+     * The starts and ends of matches, as they are found
+     */
+    private static final class Matches {
+
+        private int[] bounds = new int[32];
+        private int count;
+
+        void add(int start, int end) {
+            if (2 * count == bounds.length) {
+                bounds = Arrays.copyOf(bounds, 2 * bounds.length);
+            }
+            bounds[2 * count] = start;
+            bounds[2 * count + 1] = end;
+            count++;
+        }
+
+        boolean isEmpty() {
+            return count == 0;
+        }
+
+        /*
+         * Returns where the match after the last one starts to be looked for
+         */
+        int next() {
+            int start = bounds[2 * count - 2];
+            int end = bounds[2 * count - 1];
+            return end > start ? end : end + 1;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(bounds, 2 * count);
+        }
+    }
+}
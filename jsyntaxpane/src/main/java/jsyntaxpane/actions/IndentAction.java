@@ -62,10 +62,15 @@ public class IndentAction extends DefaultSyntaxAction {
 					target.select(abbrToken.start, abbrToken.end());
 					abbr = abbrvs.get(abbr);
 					String[] abbrLines = abbr.split("\n");
-					if (abbrLines.length > 1) {
-						ActionUtils.insertLinesTemplate(target, abbrLines);
-					} else {
-						ActionUtils.insertSimpleTemplate(target, abbr);
+					sDoc.beginBatch();
+					try {
+						if (abbrLines.length > 1) {
+							ActionUtils.insertLinesTemplate(target, abbrLines);
+						} else {
+							ActionUtils.insertSimpleTemplate(target, abbr);
+						}
+					} finally {
+						sDoc.endBatch();
 					}
 				} else {
 					target.replaceSelection(ActionUtils.SPACES.substring(0, needed));
@@ -80,7 +85,17 @@ public class IndentAction extends DefaultSyntaxAction {
 				sb.append(line);
 				sb.append('\n');
 			}
-			target.replaceSelection(sb.toString());
+			// the selected lines are replaced, and lexed, at once
+			if (sDoc != null) {
+				sDoc.beginBatch();
+			}
+			try {
+				target.replaceSelection(sb.toString());
+			} finally {
+				if (sDoc != null) {
+					sDoc.endBatch();
+				}
+			}
 			target.select(start, start + sb.length());
 		}
 	}
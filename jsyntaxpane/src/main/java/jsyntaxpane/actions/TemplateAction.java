@@ -47,13 +47,23 @@ public class TemplateAction extends DefaultSyntaxAction {
                 return;
             }
         }
-        if (wholeLines) {
-            if(tlines == null) {
-                tlines = template.split("\n");
+        // the selection is replaced by the template, and lexed, at once
+        if (sdoc != null) {
+            sdoc.beginBatch();
+        }
+        try {
+            if (wholeLines) {
+                if(tlines == null) {
+                    tlines = template.split("\n");
+                }
+                ActionUtils.insertLinesTemplate(target, tlines);
+            } else {
+                ActionUtils.insertSimpleTemplate(target, template);
+            }
+        } finally {
+            if (sdoc != null) {
+                sdoc.endBatch();
             }
-            ActionUtils.insertLinesTemplate(target, tlines);
-        } else {
-            ActionUtils.insertSimpleTemplate(target, template);
         }
     }
 
@@ -70,7 +70,17 @@ public class ToggleCommentsAction extends DefaultSyntaxAction {
             }
             toggled.append('\n');
         }
-        target.replaceSelection(toggled.toString());
+        // the selected lines are replaced, and lexed, at once
+        if (sDoc != null) {
+            sDoc.beginBatch();
+        }
+        try {
+            target.replaceSelection(toggled.toString());
+        } finally {
+            if (sDoc != null) {
+                sDoc.endBatch();
+            }
+        }
         target.select(start, start + toggled.length());
     }
 
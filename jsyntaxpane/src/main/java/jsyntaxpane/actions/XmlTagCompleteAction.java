@@ -16,7 +16,7 @@ package jsyntaxpane.actions;
 import java.awt.event.ActionEvent;
 import javax.swing.text.JTextComponent;
 import jsyntaxpane.SyntaxDocument;
-import jsyntaxpane.Token;
+import jsyntaxpane.TokenCursor;
 import jsyntaxpane.TokenType;
 
 /**
@@ -32,11 +32,12 @@ public class XmlTagCompleteAction extends DefaultSyntaxAction {
     @Override
     public void actionPerformed(JTextComponent target, SyntaxDocument sDoc,
             int dot, ActionEvent e) {
-        Token tok = sDoc.getTokenAt(dot);
-        while (tok != null && tok.type != TokenType.TYPE) {
-            tok = sDoc.getPrevToken(tok);
+        TokenCursor tok = sDoc.getTokenCursor(dot);
+        boolean found = tok != null;
+        while (found && tok.getType() != TokenType.TYPE) {
+            found = tok.previous();
         }
-        if (tok == null) {
+        if (!found) {
             target.replaceSelection(">");
         } else {
             CharSequence tag = tok.getText(sDoc);
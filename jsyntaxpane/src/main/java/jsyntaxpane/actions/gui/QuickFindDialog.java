@@ -13,7 +13,6 @@
  */
 package jsyntaxpane.actions.gui;
 
-import java.awt.Color;
 import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.Point;
@@ -23,32 +22,60 @@ import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.lang.ref.WeakReference;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import javax.swing.JCheckBox;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.JTextComponent;
 
+import jsyntaxpane.SearchIndex;
+import jsyntaxpane.SyntaxDocument;
+import jsyntaxpane.actions.ActionUtils;
 import jsyntaxpane.actions.DocumentSearchData;
-import jsyntaxpane.components.Markers;
-import jsyntaxpane.components.Markers.SimpleMarker;
 import jsyntaxpane.util.SwingUtils;
 
 /**
  * QuickFind Dialog.  Firefox like dialog shown at bottom of editor.
+ *
+ * The search runs in the background once typing pauses for SEARCH_DELAY ms,
+ * and a new keystroke cancels it.  The text after the caret is searched
+ * first, so the first match is selected as soon as it is found, then the
+ * text before it, to count all matches.  The status shows the number of
+ * matches found so far, and "i of N" once the search is done.
+ *
  * @author Ayman Al-Sairafi
  */
 public class QuickFindDialog extends javax.swing.JDialog
 	implements DocumentListener, ActionListener, EscapeListener {
 
-	private final SimpleMarker marker = new SimpleMarker(Color.PINK);
 	private WeakReference<JTextComponent> target;
 	private final WeakReference<DocumentSearchData> dsd;
 	private int oldCaretPosition;
+	private static final int SEARCH_DELAY = 150;
+	// delay between two updates of the match count while searching
+	private static final long PROGRESS_NANOS = 100 * 1000 * 1000;
+	private final Timer searchTimer;
+	private Search search;
+	// the bounds of all matches, start and end of each, of the last finished
+	// search, and the document version they were found in
+	private int[] matches;
+	private int matchCount;
+	private int matchesVersion = -1;
 	/**
 	 * This will be set to true if ESC key is used to quit the form.
 	 * In that case, the caret will be restored to its old pos, otherwise
@@ -67,6 +94,14 @@ public class QuickFindDialog extends javax.swing.JDialog
 		initComponents();
 		SwingUtils.addEscapeListener(this);
 		dsd = new WeakReference<DocumentSearchData>(data);
+		searchTimer = new Timer(SEARCH_DELAY, new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				startSearch();
+			}
+		});
+		searchTimer.setRepeats(false);
 	}
 
 	public void showFor(final JTextComponent target) {
@@ -86,7 +121,7 @@ public class QuickFindDialog extends javax.swing.JDialog
 			@Override
 			public void windowDeactivated(WindowEvent e) {
 				target.getDocument().removeDocumentListener(QuickFindDialog.this);
-				Markers.removeMarkers(target, marker);
+				cancelSearch();
 				if (escaped) {
 					Rectangle aRect;
 					try {
@@ -222,7 +257,7 @@ public class QuickFindDialog extends javax.swing.JDialog
 
 	private void jBtnNextActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jBtnNextActionPerformed
 		if (dsd.get().doFindNext(target.get())) {
-			jLblStatus.setText(null);
+			showMatchIndex();
 		} else {
 			jLblStatus.setText(java.util.ResourceBundle.getBundle("jsyntaxpane/Bundle").getString("QuickFindDialog.NotFound"));
 		}
@@ -230,7 +265,7 @@ public class QuickFindDialog extends javax.swing.JDialog
 
 	private void jBtnPrevActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jBtnPrevActionPerformed
 		if (dsd.get().doFindPrev(target.get())) {
-			jLblStatus.setText(null);
+			showMatchIndex();
 		} else {
 			jLblStatus.setText(java.util.ResourceBundle.getBundle("jsyntaxpane/Bundle").getString("QuickFindDialog.NotFound"));
 		}
@@ -267,9 +302,28 @@ public class QuickFindDialog extends javax.swing.JDialog
 		updateFind();
 	}
 
+	/*
+	 * Cancels the running search, and starts a new one once typing pauses
+	 */
 	private void updateFind() {
+		cancelSearch();
+		searchTimer.restart();
+	}
+
+	private void cancelSearch() {
+		searchTimer.stop();
+		if (search != null) {
+			search.cancel(true);
+			search = null;
+		}
+	}
+
+	private void startSearch() {
 		JTextComponent t = target.get();
 		DocumentSearchData d = dsd.get();
+		if (t == null || d == null) {
+			return;
+		}
 		String toFind = jTxtFind.getText();
 		if (toFind == null || toFind.isEmpty()) {
 			jLblStatus.setText(null);
@@ -280,17 +334,206 @@ public class QuickFindDialog extends javax.swing.JDialog
 			d.setPattern(toFind,
 				jChkRegExp.isSelected(),
 				jChkIgnoreCase.isSelected());
-			// The dsd doFindNext will always find from current pos,
-			// so we need to relocate to our saved pos before we call doFindNext
-			jLblStatus.setText(null);
-			t.setCaretPosition(oldCaretPosition);
+		} catch (PatternSyntaxException e) {
+			jLblStatus.setText(e.getDescription());
+			return;
+		}
+		// Like doFindNext, we search from our saved pos, skipping a match
+		// right at it
+		jLblStatus.setText(null);
+		t.setCaretPosition(oldCaretPosition);
+		SyntaxDocument sDoc = ActionUtils.getSyntaxDocument(t);
+		if (sDoc == null) {
 			if (!d.doFindNext(t)) {
-				jLblStatus.setText(java.util.ResourceBundle.getBundle("jsyntaxpane/Bundle").getString("QuickFindDialog.NotFound"));
+				jLblStatus.setText(getString("QuickFindDialog.NotFound"));
+			}
+			return;
+		}
+		search = new Search(t, sDoc, d.getPattern(), d.isWrap());
+		search.execute();
+	}
+
+	/*
+	 * Shows the index of the selected match among the matches of the last
+	 * search, if the document was not changed since
+	 */
+	private void showMatchIndex() {
+		JTextComponent t = target.get();
+		SyntaxDocument sDoc = ActionUtils.getSyntaxDocument(t);
+		if (sDoc == null || search != null || sDoc.getVersion() != matchesVersion) {
+			jLblStatus.setText(null);
+			return;
+		}
+		int start = t.getSelectionStart();
+		int lo = 0;
+		int hi = matchCount - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (matches[2 * mid] < start) {
+				lo = mid + 1;
 			} else {
+				hi = mid - 1;
+			}
+		}
+		if (lo < matchCount && matches[2 * lo] == start) {
+			jLblStatus.setText(MessageFormat.format(getString("QuickFindDialog.MatchIndex"),
+				lo + 1, matchCount));
+		} else {
+			jLblStatus.setText(MessageFormat.format(getString("QuickFindDialog.MatchCount"),
+				matchCount));
+		}
+	}
+
+	private static String getString(String key) {
+		return ResourceBundle.getBundle("jsyntaxpane/Bundle").getString(key);
+	}
+
+	/**
+	 * Finds all matches of a pattern in a version of the document, the ones
+	 * from the search position to the end first.  Publishes the bounds of the
+	 * match to select as soon as it is found, and the count of matches found
+	 * so far from time to time, as {start, end, count} with a start of -1 if
+	 * there is nothing to select.  The result is the bounds of all matches,
+	 * as a Matcher finds them from the start of the document.
+	 */
+	private final class Search extends SwingWorker<int[], int[]> {
+
+		private final JTextComponent t;
+		private final Pattern pattern;
+		private final boolean wrap;
+		private final CharSequence text;
+		private final int version;
+		private final int from;
+		private final int[] ranges;
+		private int count;
+		private long published;
+		private boolean selected;
+
+		Search(JTextComponent t, SyntaxDocument sDoc, Pattern pattern, boolean wrap) {
+			this.t = t;
+			this.pattern = pattern;
+			this.wrap = wrap;
+			text = sDoc.getVersionText();
+			version = sDoc.getVersion();
+			ranges = sDoc.getSearchRanges(pattern);
+			from = Math.min(t.getSelectionEnd() + 1, text.length());
+		}
+
+		@Override
+		protected int[] doInBackground() {
+			Matcher matcher = pattern.matcher(text);
+			int[] after = new int[64];
+			int nAfter = 0;
+			for (int pos = from; find(matcher, pos); pos = next(matcher)) {
+				after = add(after, nAfter++, matcher);
+				found(matcher, true);
+			}
+			// Then the matches from the start.  Once past from, they are the
+			// ones found from from, unless one before from overlaps them.
+			int[] all = new int[64];
+			int n = 0;
+			int i = nAfter;
+			for (int pos = 0, j = 0; find(matcher, pos); pos = next(matcher)) {
+				if (matcher.start() >= from) {
+					while (j < nAfter && after[2 * j] < matcher.start()) {
+						j++;
+					}
+					if (j < nAfter && after[2 * j] == matcher.start()
+						&& after[2 * j + 1] == matcher.end()) {
+						i = j;
+						break;
+					}
+				}
+				all = add(all, n++, matcher);
+				found(matcher, wrap);
+			}
+			all = Arrays.copyOf(all, 2 * (n + nAfter - i));
+			System.arraycopy(after, 2 * i, all, 2 * n, 2 * (nAfter - i));
+			return all;
+		}
+
+		private boolean find(Matcher matcher, int pos) {
+			if (isCancelled()) {
+				throw new CancellationException();
+			}
+			return pos <= text.length() && SearchIndex.find(matcher, ranges, pos);
+		}
+
+		/*
+		 * Returns the position to find the match after the current one from
+		 */
+		private int next(Matcher matcher) {
+			// an empty match must not be found again
+			return matcher.end() > matcher.start() ? matcher.end() : matcher.end() + 1;
+		}
+
+		/*
+		 * Puts the bounds of the current match at index n of bounds
+		 */
+		private int[] add(int[] bounds, int n, Matcher matcher) {
+			if (2 * n == bounds.length) {
+				bounds = Arrays.copyOf(bounds, 2 * bounds.length);
+			}
+			bounds[2 * n] = matcher.start();
+			bounds[2 * n + 1] = matcher.end();
+			return bounds;
+		}
+
+		private void found(Matcher matcher, boolean select) {
+			count++;
+			long now = System.nanoTime();
+			if (select && !selected) {
+				selected = true;
+				published = now;
+				publish(new int[] { matcher.start(), matcher.end(), count });
+			} else if (now - published > PROGRESS_NANOS) {
+				published = now;
+				publish(new int[] { -1, -1, count });
+			}
+		}
+
+		@Override
+		protected void process(List<int[]> chunks) {
+			if (search != this) {
+				return;
+			}
+			int[] last = chunks.get(chunks.size() - 1);
+			for (int[] chunk : chunks) {
+				if (chunk[0] >= 0) {
+					t.select(chunk[0], chunk[1]);
+				}
+			}
+			jLblStatus.setText(MessageFormat.format(getString("QuickFindDialog.Searching"), last[2]));
+		}
+
+		@Override
+		protected void done() {
+			if (search != this) {
+				return;
+			}
+			search = null;
+			try {
+				int[] all = get();
+				matches = all;
+				matchCount = all.length / 2;
+				matchesVersion = version;
+				if (!selected) {
+					jLblStatus.setText(getString("QuickFindDialog.NotFound"));
+				} else {
+					showMatchIndex();
+				}
+			} catch (CancellationException ex) {
+				// the document was changed
 				jLblStatus.setText(null);
+			} catch (InterruptedException ex) {
+				jLblStatus.setText(null);
+			} catch (ExecutionException ex) {
+				if (ex.getCause() instanceof CancellationException) {
+					jLblStatus.setText(null);
+				} else {
+					Logger.getLogger(QuickFindDialog.class.getName()).log(Level.SEVERE, null, ex);
+				}
 			}
-		} catch (PatternSyntaxException e) {
-			jLblStatus.setText(e.getDescription());
 		}
 	}
 
@@ -24,6 +24,8 @@ import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
 import javax.swing.text.JTextComponent;
 
+import jsyntaxpane.Annotations;
+import jsyntaxpane.SyntaxDocument;
 import jsyntaxpane.actions.ActionUtils;
 import jsyntaxpane.actions.DocumentSearchData;
 import jsyntaxpane.components.Markers;
@@ -41,7 +43,7 @@ public class ReplaceDialog extends javax.swing.JDialog
 
 	private final JTextComponent textComponent;
 	private final DocumentSearchData dsd;
-	private static Markers.SimpleMarker SEARCH_MARKER = new Markers.SimpleMarker(Color.YELLOW);
+	private static final Color SEARCH_COLOR = Color.YELLOW;
 
 	/**
 	 * Creates new form FindDialog
@@ -66,9 +68,13 @@ public class ReplaceDialog extends javax.swing.JDialog
 	 * This is called by the DocumentListener methods
 	 */
 	public void updateHighlights() {
-		Markers.removeMarkers(textComponent, SEARCH_MARKER);
+		SyntaxDocument sDoc = ActionUtils.getSyntaxDocument(textComponent);
+		if (sDoc == null) {
+			return;
+		}
+		sDoc.getAnnotationLayers().getLayer(Annotations.SEARCH, textComponent).clear();
 		if (jTglHighlight.isSelected()) {
-			Markers.markAll(textComponent, dsd.getPattern(), SEARCH_MARKER);
+			Markers.markAll(textComponent, Annotations.SEARCH, dsd.getPattern(), SEARCH_COLOR);
 		}
 	}
 
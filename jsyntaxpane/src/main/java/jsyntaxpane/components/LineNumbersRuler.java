@@ -29,7 +29,6 @@ import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
-import javax.swing.text.BadLocationException;
 import javax.swing.text.Element;
 import javax.swing.text.JTextComponent;
 import jsyntaxpane.SyntaxDocument;
@@ -72,11 +71,12 @@ public class LineNumbersRuler extends JPanel
 	//  Keep history information to reduce the number of times the component
 	//  needs to be repainted
 	private int lastDigits;
-	private int lastHeight;
+	private int lastLineCount;
 	private int lastLine;
 	private MouseListener mouseListener = null;
-	// The formatting to use for displaying numbers.  Use in String.format(numbersFormat, line)
-	private String numbersFormat = "%3d";
+	// The chars of the painted line number, right aligned in lastDigits
+	// chars like String.format("%3d", line) would
+	private char[] numberChars = new char[3];
 
 	private Color currentLineColor;
 
@@ -133,6 +133,7 @@ public class LineNumbersRuler extends JPanel
 		};
 		addMouseListener(mouseListener);
         setPreferredWidth(false);    // required for toggle-lines to correctly repaint
+		lastLine = getCaretLine();
 		status = Status.INSTALLING;
 	}
 
@@ -175,13 +176,20 @@ public class LineNumbersRuler extends JPanel
 	 */
 	private void setPreferredWidth(boolean force) {
 		int lines  = ActionUtils.getLineCount(editor);
-		int digits = Math.max(String.valueOf(lines).length(), minimumDisplayDigits);
+		lastLineCount = lines;
+		int digits = 1;
+		for (int n = lines; n >= 10; n /= 10) {
+			digits++;
+		}
+		digits = Math.max(digits, minimumDisplayDigits);
 
 		//  Update sizes when number of digits in the line number changes
 
 		if (force || lastDigits != digits) {
 			lastDigits = digits;
-			numbersFormat = "%" + digits + "d";
+			if (numberChars.length < digits) {
+				numberChars = new char[digits];
+			}
 			FontMetrics fontMetrics = getFontMetrics(getFont());
 			int width = fontMetrics.charWidth('0') * digits;
 			Insets insets = getInsets();
@@ -191,6 +199,7 @@ public class LineNumbersRuler extends JPanel
 			d.setSize(preferredWidth, MAX_HEIGHT);
 			setPreferredSize(d);
 			setSize(d);
+			repaint();
 		}
 	}
 
@@ -203,13 +212,8 @@ public class LineNumbersRuler extends JPanel
 
 		FontMetrics fontMetrics = getFontMetrics(getFont());
 		Insets insets = getInsets();
-		int currentLine = -1;
-		try {
-			currentLine = ActionUtils.getLineNumber(editor, editor.getCaretPosition());
-		} catch (BadLocationException ex) {
-			// this won't happen, even if it does, we can ignore it and we will not have
-			// a current line to worry about...
-		}
+		// kept up to date by caretUpdate
+		int currentLine = lastLine;
 
 		int lh = fontMetrics.getHeight();
 		int maxLines = ActionUtils.getLineCount(editor);
@@ -220,20 +224,36 @@ public class LineNumbersRuler extends JPanel
 		int bottomLine = Math.min(maxLines, (int) (clip.getHeight() + lh - 1) / lh + topLine + 1);
 		
 		for (int line = topLine; line < bottomLine; line++) {
-			String lineNumber = String.format(numbersFormat, line + 1);
+			formatLineNumber(line + 1);
 			int y  = line * lh + insets.top;
             int yt = y + fontMetrics.getAscent();
 			if (line == currentLine) {
 				g.setColor(currentLineColor);
 				g.fillRect(0, y /* - lh + fontMetrics.getDescent() - 1 */, getWidth(), lh);
 				g.setColor(getForeground());
-				g.drawString(lineNumber, insets.left, yt);
-			} else {
-				g.drawString(lineNumber, insets.left, yt);
 			}
+			g.drawChars(numberChars, 0, lastDigits, insets.left, yt);
 		}
 	}
 
+	/*
+	 * Writes the given number into numberChars, padded with spaces
+	 */
+	private void formatLineNumber(int number) {
+		for (int i = lastDigits - 1; i >= 0; i--) {
+			numberChars[i] = number == 0 ? ' ' : (char) ('0' + number % 10);
+			number /= 10;
+		}
+	}
+
+	/*
+	 * Repaints the rows of the lines from line0 to line1, inclusive
+	 */
+	private void repaintLines(int line0, int line1) {
+		int lh = getFontMetrics(getFont()).getHeight();
+		repaint(0, line0 * lh + getInsets().top, getWidth(), (line1 - line0 + 1) * lh);
+	}
+
 //
 //  Implement CaretListener interface
 //
@@ -241,18 +261,23 @@ public class LineNumbersRuler extends JPanel
 	public void caretUpdate(CaretEvent e) {
 		//  Get the line the caret is positioned on
 
-		int caretPosition = editor.getCaretPosition();
-		Element root = editor.getDocument().getDefaultRootElement();
-		int currentLine = root.getElementIndex(caretPosition);
+		int currentLine = getCaretLine();
 
-		//  Need to repaint so the correct line number can be highlighted
+		//  Need to repaint so the correct line number can be highlighted,
+		//  only the rows of the old and the new current line
 
 		if (lastLine != currentLine) {
-			repaint();
+			repaintLines(lastLine, lastLine);
+			repaintLines(currentLine, currentLine);
 			lastLine = currentLine;
 		}
 	}
 
+	private int getCaretLine() {
+		Element root = editor.getDocument().getDefaultRootElement();
+		return root.getElementIndex(editor.getCaretPosition());
+	}
+
 //
 //  Implement DocumentListener interface
 //
@@ -273,28 +298,26 @@ public class LineNumbersRuler extends JPanel
 
 	/*
 	 *  A document change may affect the number of displayed lines of text.
-	 *  Therefore the lines numbers will also change.
+	 *  The numbers of the lines that are still there do not change, so only
+	 *  the rows of the added or removed lines are repainted, or all of them
+	 *  if the number of digits changed.
 	 */
 	private void documentChanged() {
-		//  Preferred size of the component has not been updated at the time
-		//  the DocumentEvent is fired
-
-		SwingUtilities.invokeLater(new Runnable() {
+		if (!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(new Runnable() {
 
-			@Override
-			public void run() {
-				int preferredHeight = editor.getPreferredSize().height;
-
-				//  Document change has caused a change in the number of lines.
-				//  Repaint to reflect the new line numbers
-
-				if (lastHeight != preferredHeight) {
-					setPreferredWidth(false);
-					repaint();
-					lastHeight = preferredHeight;
+				@Override
+				public void run() {
+					documentChanged();
 				}
-			}
-		});
+			});
+			return;
+		}
+		int oldLineCount = lastLineCount;
+		setPreferredWidth(false);
+		if (lastLineCount != oldLineCount) {
+			repaintLines(Math.min(oldLineCount, lastLineCount), Math.max(oldLineCount, lastLineCount));
+		}
 	}
 
 	/**
@@ -312,6 +335,7 @@ public class LineNumbersRuler extends JPanel
 				SyntaxDocument syntaxDocument = (SyntaxDocument) evt.getNewValue();
 				syntaxDocument.addDocumentListener(this);
 				setPreferredWidth(false);
+				lastLine = getCaretLine();
 				repaint();
 			}
 		} else if (prop.equals("font") && evt.getNewValue() instanceof Font) {
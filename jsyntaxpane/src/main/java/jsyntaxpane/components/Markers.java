@@ -14,21 +14,25 @@
 package jsyntaxpane.components;
 
 import jsyntaxpane.actions.ActionUtils;
+import jsyntaxpane.actions.FindAll;
 import java.awt.Color;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultHighlighter;
 import javax.swing.text.Highlighter;
 import javax.swing.text.JTextComponent;
+import jsyntaxpane.AnnotationLayer;
 import jsyntaxpane.SyntaxDocument;
 import jsyntaxpane.Token;
 
 /**
  * This class contains static utility methods to make highlighting in text
- * components easier.
+ * components easier.  The highlights of a SyntaxDocument are best kept in
+ * one of its {@link AnnotationLayer}s: those are painted by the view for the
+ * visible lines only, and a whole layer is cleared at once.  The methods
+ * taking a SimpleMarker use the Highlighter of the component instead.
  * 
  * @author Ayman Al-Sairafi, Hanns Holger Rutz
  */
@@ -117,15 +121,76 @@ public class Markers {
         if(sDoc  == null || pattern == null) {
             return;
         }
-        Matcher matcher = sDoc.getMatcher(pattern);
-		// we may not have any matcher (due to undo or something, so don't do anything.
-		if(matcher==null) {
-			return;
-		}
-        while(matcher.find()) {
-            markText(pane, matcher.start(), matcher.end(), marker);
+        int[] matches = FindAll.findAll(sDoc, pattern);
+        for (int i = 0; i < matches.length; i += 2) {
+            markText(pane, matches[i], matches[i + 1], marker);
         }
     }
     
+    /**
+     * Adds an annotation for the given Token to the given layer of the
+     * document
+     */
+    public static void markToken(SyntaxDocument doc, String layer, Token token, Color color) {
+        markText(doc, layer, token.start, token.end(), color);
+    }
+
+    /**
+     * Adds an annotation for the given region to the given layer of the
+     * document
+     */
+    public static void markText(SyntaxDocument doc, String layer, int start, int end, Color color) {
+        doc.getAnnotationLayers().getLayer(layer).add(start, end, color);
+    }
+
+    /**
+     * Adds an annotation for the given Token to the given layer of the pane,
+     * see {@link jsyntaxpane.Annotations#getLayer(String, JTextComponent)}
+     */
+    public static void markToken(JTextComponent pane, String layer, Token token, Color color) {
+        markText(pane, layer, token.start, token.end(), color);
+    }
+
+    /**
+     * Adds an annotation for the given region to the given layer of the pane
+     */
+    public static void markText(JTextComponent pane, String layer, int start, int end, Color color) {
+        SyntaxDocument doc = ActionUtils.getSyntaxDocument(pane);
+        if (doc != null) {
+            doc.getAnnotationLayers().getLayer(layer, pane).add(start, end, color);
+        }
+    }
+
+    /**
+     * Adds an annotation for all text in the document that matches the given
+     * pattern to the given layer of the pane
+     */
+    public static void markAll(JTextComponent pane, String layer, Pattern pattern, Color color) {
+        SyntaxDocument doc = ActionUtils.getSyntaxDocument(pane);
+        if (doc == null || pattern == null) {
+            return;
+        }
+        int[] matches = FindAll.findAll(doc, pattern);
+        AnnotationLayer annotations = doc.getAnnotationLayers().getLayer(layer, pane);
+        for (int i = 0; i < matches.length; i += 2) {
+            annotations.add(matches[i], matches[i + 1], color);
+        }
+    }
+
+    /**
+     * Adds an annotation for all text in the document that matches the given
+     * pattern to the given layer of the document
+     */
+    public static void markAll(SyntaxDocument doc, String layer, Pattern pattern, Color color) {
+        if (pattern == null) {
+            return;
+        }
+        int[] matches = FindAll.findAll(doc, pattern);
+        AnnotationLayer annotations = doc.getAnnotationLayers().getLayer(layer);
+        for (int i = 0; i < matches.length; i += 2) {
+            annotations.add(matches[i], matches[i + 1], color);
+        }
+    }
+
     private static final Logger LOG = Logger.getLogger(Markers.class.getName());
 }
@@ -21,13 +21,15 @@ import javax.swing.JEditorPane;
 import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
 import javax.swing.text.JTextComponent;
+import jsyntaxpane.Annotations;
 import jsyntaxpane.SyntaxDocument;
 import jsyntaxpane.Token;
 import jsyntaxpane.util.Configuration;
 
 /**
  * This class highlights any pairs of the given language.  Pairs are defined
- * with the Token.pairValue.
+ * with the Token.pairValue.  The highlights are kept in the
+ * {@link Annotations#PAIRS} layer of the pane.
  *
  * @author Ayman Al-Sairafi
  */
@@ -35,7 +37,7 @@ public class PairsMarker implements CaretListener, SyntaxComponent, PropertyChan
 
     public static final String PROPERTY_COLOR = "PairMarker.Color";
     private JTextComponent pane;
-    private Markers.SimpleMarker marker;
+    private Color markerColor;
     private Status status;
 
     public PairsMarker() {
@@ -48,10 +50,10 @@ public class PairsMarker implements CaretListener, SyntaxComponent, PropertyChan
         SyntaxDocument doc = ActionUtils.getSyntaxDocument(pane);
         Token token = doc.getTokenAt(pos);
         if (token != null && token.pairValue != 0) {
-            Markers.markToken(pane, token, marker);
+            Markers.markToken(pane, Annotations.PAIRS, token, markerColor);
             Token other = doc.getPairFor(token);
             if (other != null) {
-                Markers.markToken(pane, other, marker);
+                Markers.markToken(pane, Annotations.PAIRS, other, markerColor);
             }
         }
     }
@@ -61,13 +63,15 @@ public class PairsMarker implements CaretListener, SyntaxComponent, PropertyChan
      * when the editor-kit is removed.
      */
     public void removeMarkers() {
-        Markers.removeMarkers(pane, marker);
+        SyntaxDocument doc = ActionUtils.getSyntaxDocument(pane);
+        if (doc != null) {
+            doc.getAnnotationLayers().getLayer(Annotations.PAIRS, pane).clear();
+        }
     }
 
     @Override
     public void config(Configuration config) {
-        Color markerColor = config.getColor(PROPERTY_COLOR, new Color(0xeeee33));
-        this.marker = new Markers.SimpleMarker(markerColor);
+        markerColor = config.getColor(PROPERTY_COLOR, new Color(0xeeee33));
     }
 
     @Override
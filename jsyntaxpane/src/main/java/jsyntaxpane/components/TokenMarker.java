@@ -16,14 +16,21 @@ package jsyntaxpane.components;
 import jsyntaxpane.actions.ActionUtils;
 import java.beans.PropertyChangeEvent;
 import java.awt.Color;
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.beans.PropertyChangeListener;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
 import java.util.logging.Logger;
 import javax.swing.JEditorPane;
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
 import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import jsyntaxpane.Annotations;
+import jsyntaxpane.OccurrenceIndex;
 import jsyntaxpane.SyntaxDocument;
 import jsyntaxpane.Token;
 import jsyntaxpane.TokenType;
@@ -32,6 +39,11 @@ import jsyntaxpane.util.Configuration;
 /**
  * This class highlights Tokens within a document whenever the caret is moved
  * to a TokenType provided in the config file.
+ *
+ * The occurrences are found in the {@link OccurrenceIndex} of the document,
+ * and only those in and around the visible part of the editor are
+ * highlighted, in the {@link Annotations#TOKEN_MARKER} layer.  More of them are highlighted when the editor is scrolled
+ * past that part.
  * 
  * @author Ayman Al-Sairafi
  */
@@ -43,8 +55,33 @@ public class TokenMarker implements SyntaxComponent, CaretListener, PropertyChan
     private static final Color DEFAULT_COLOR = new Color(0xFFEE66);
     private JEditorPane pane;
     private Set<TokenType> tokenTypes = new HashSet<TokenType>();
-    private Markers.SimpleMarker marker;
+    private Color markerColor;
     private Status status;
+    // the text of the marked tokens, or null, and the part of the document
+    // its occurrences are marked in
+    private String markedText;
+    private int markedStart;
+    private int markedEnd;
+    private JViewport viewport;
+    private final ChangeListener viewportListener = new ChangeListener() {
+
+        @Override
+        public void stateChanged(ChangeEvent e) {
+            if (markedText != null) {
+                int[] visible = getVisibleRange();
+                if (visible[0] < markedStart || visible[1] > markedEnd) {
+                    removeMarkers();
+                    SyntaxDocument sDoc = (SyntaxDocument) pane.getDocument();
+                    sDoc.readLock();
+                    try {
+                        markOccurrences(sDoc);
+                    } finally {
+                        sDoc.readUnlock();
+                    }
+                }
+            }
+        }
+    };
 
     /**
      * Constructs a new Token highlighter
@@ -62,6 +99,7 @@ public class TokenMarker implements SyntaxComponent, CaretListener, PropertyChan
         if (doc != null) {
             Token token = doc.getTokenAt(pos);
             removeMarkers();
+            markedText = null;
             if (token != null && tokenTypes.contains(token.type)) {
                 addMarkers(token);
             }
@@ -72,7 +110,10 @@ public class TokenMarker implements SyntaxComponent, CaretListener, PropertyChan
      * removes all markers from the pane.
      */
     public void removeMarkers() {
-        Markers.removeMarkers(pane, marker);
+        SyntaxDocument doc = ActionUtils.getSyntaxDocument(pane);
+        if (doc != null) {
+            doc.getAnnotationLayers().getLayer(Annotations.TOKEN_MARKER, pane).clear();
+        }
     }
 
     /**
@@ -82,26 +123,62 @@ public class TokenMarker implements SyntaxComponent, CaretListener, PropertyChan
     void addMarkers(Token tok) {
         SyntaxDocument sDoc = (SyntaxDocument) pane.getDocument();
         sDoc.readLock();
-        // we need to create a STring, because the CharSequence does not have an
-        // equals method and Object.equals is called.  It will not match
-        String text = tok.getText(sDoc).toString();
-        Iterator<Token> it = sDoc.getTokens(0, sDoc.getLength());
-        while (it.hasNext()) {
-            Token nextToken = it.next();
-            String nextText = nextToken.getText(sDoc).toString();
-            if (text.equals(nextText)) {
-                Markers.markToken(pane, nextToken, marker);
+        try {
+            markedText = tok.getText(sDoc).toString();
+            markOccurrences(sDoc);
+        } finally {
+            sDoc.readUnlock();
+        }
+    }
+
+    /*
+     * Marks the occurrences of markedText from one screen above the visible
+     * part of the pane to one screen below it, so that scrolling by less
+     * does not mark them again
+     */
+    private void markOccurrences(SyntaxDocument sDoc) {
+        int[] visible = getVisibleRange();
+        int more = visible[1] - visible[0];
+        markedStart = Math.max(0, visible[0] - more);
+        markedEnd = Math.min(sDoc.getLength(), visible[1] + more);
+        OccurrenceIndex index = sDoc.getOccurrenceIndex(tokenTypes);
+        OccurrenceIndex.Word word = index == null ? null : index.getWord(markedText);
+        if (word == null) {
+            return;
+        }
+        for (int i = index.indexFrom(markedStart); i < index.size() && index.getStart(i) < markedEnd; i++) {
+            if (index.getWord(i) == word) {
+                Markers.markText(pane, Annotations.TOKEN_MARKER, index.getStart(i), index.getEnd(i),
+                        markerColor);
             }
+        }
+    }
 
+    /*
+     * Returns the start and end of the visible part of the pane, or of the
+     * whole document if the pane is not shown
+     */
+    private int[] getVisibleRange() {
+        if (viewport == null) {
+            viewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, pane);
+            if (viewport != null) {
+                viewport.addChangeListener(viewportListener);
+            }
         }
-        sDoc.readUnlock();
+        Rectangle r = pane.getVisibleRect();
+        int length = pane.getDocument().getLength();
+        if (r.isEmpty()) {
+            return new int[]{0, length};
+        }
+        int start = pane.viewToModel(r.getLocation());
+        int end = pane.viewToModel(new Point(r.x + r.width, r.y + r.height));
+        return new int[]{Math.max(0, start), end < 0 ? length : end};
     }
 
     @Override
     public void config(Configuration config) {
-        Color markerColor = config.getColor(
+        markerColor = config.getColor(
                 PROPERTY_COLOR, DEFAULT_COLOR);
-        this.marker = new Markers.SimpleMarker(markerColor);
         String types = config.getString(
                 PROPERTY_TOKENTYPES, DEFAULT_TOKENTYPES);
 
@@ -129,7 +206,12 @@ public class TokenMarker implements SyntaxComponent, CaretListener, PropertyChan
     public void deinstall(JEditorPane editor) {
         status = Status.DEINSTALLING;
         removeMarkers();
+        markedText = null;
         pane.removeCaretListener(this);
+        if (viewport != null) {
+            viewport.removeChangeListener(viewportListener);
+            viewport = null;
+        }
     }
     private static final Logger LOG = Logger.getLogger(TokenMarker.class.getName());
 
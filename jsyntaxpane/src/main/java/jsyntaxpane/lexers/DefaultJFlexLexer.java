@@ -13,8 +13,10 @@
  */
 package jsyntaxpane.lexers;
 
-import jsyntaxpane.Lexer;
+import jsyntaxpane.LexerState;
+import jsyntaxpane.RestartableLexer;
 import jsyntaxpane.Token;
+import jsyntaxpane.TokenBuffer;
 import jsyntaxpane.TokenType;
 import java.io.CharArrayReader;
 import java.io.IOException;
@@ -30,11 +32,17 @@ import javax.swing.text.Segment;
  *
  * @author Ayman Al-Sairafi
  */
-public abstract class DefaultJFlexLexer implements Lexer {
+public abstract class DefaultJFlexLexer implements RestartableLexer {
 
     protected int tokenStart;
     protected int tokenLength;
     protected int offset;
+    /**
+     * Returned by the token methods instead of a new Token while lexing
+     * into a TokenBuffer
+     */
+    private static final Token APPENDED = new Token(TokenType.DEFAULT, 0, 0);
+    private TokenBuffer buffer;
 
     /**
      * Helper method to create and return a new Token from of TokenType
@@ -45,7 +53,7 @@ public abstract class DefaultJFlexLexer implements Lexer {
             int newStart, int newLength) {
         tokenStart = newStart;
         tokenLength = newLength;
-        return new Token(type, tStart + offset, tLength);
+        return emit(type, tStart + offset, tLength, (byte) 0);
     }
 
     /**
@@ -53,7 +61,7 @@ public abstract class DefaultJFlexLexer implements Lexer {
      * offset is added to start
      */
     protected Token token(TokenType type, int start, int length) {
-        return new Token(type, start + offset, length);
+        return emit(type, start + offset, length, (byte) 0);
     }
 
     /**
@@ -62,7 +70,7 @@ public abstract class DefaultJFlexLexer implements Lexer {
      * offset is added to start
      */
     protected Token token(TokenType type) {
-        return new Token(type, yychar() + offset, yylength());
+        return emit(type, yychar() + offset, yylength(), (byte) 0);
     }
 
     /**
@@ -72,7 +80,19 @@ public abstract class DefaultJFlexLexer implements Lexer {
      * offset is added to start
      */
     protected Token token(TokenType type, int pairValue) {
-        return new Token(type, yychar() + offset, yylength(), (byte) pairValue);
+        return emit(type, yychar() + offset, yylength(), (byte) pairValue);
+    }
+
+    /*
+     * Appends the token to the buffer being lexed into, if any, or else
+     * creates it.  start already includes the offset.
+     */
+    private Token emit(TokenType type, int start, int length, byte pairValue) {
+        if (buffer != null) {
+            buffer.add(type, start, length, pairValue);
+            return APPENDED;
+        }
+        return new Token(type, start, length, pairValue);
     }
 
     /**
@@ -93,6 +113,69 @@ public abstract class DefaultJFlexLexer implements Lexer {
         }
     }
 
+    @Override
+    public void restart(Reader reader, int ofst, LexerState state) {
+        yyreset(reader);
+        this.offset = ofst;
+        if (state != null) {
+            yybegin(state.lexicalState);
+            // tokenStart is saved relative to the restart position, which
+            // is at yychar 0 for the new reader
+            tokenStart = state.tokenStart;
+            tokenLength = state.tokenLength;
+            restoreUserState(state.userState);
+        }
+    }
+
+    @Override
+    public boolean nextToken(TokenBuffer tokens) throws IOException {
+        buffer = tokens;
+        try {
+            return yylex() != null;
+        } finally {
+            buffer = null;
+        }
+    }
+
+    @Override
+    public int getPosition() {
+        return yychar() + yylength() + offset;
+    }
+
+    /**
+     * Returns the lexical state, the pending token and any user state.
+     * tokenStart and tokenLength are only saved outside of the initial
+     * lexical state, as lexer rules set them when leaving it.
+     */
+    @Override
+    public LexerState getState() {
+        int state = yystate();
+        Object user = saveUserState();
+        if (state == 0) {
+            return user == null ? LexerState.INITIAL : new LexerState(0, 0, 0, user);
+        }
+        return new LexerState(state, tokenStart - yychar() - yylength(),
+                tokenLength, user);
+    }
+
+    /**
+     * Returns the values of any fields, other than tokenStart and
+     * tokenLength, that this lexer carries from one token to the next.
+     * Lexers with such fields must override this and
+     * {@link #restoreUserState(Object)}.  The returned object must be
+     * immutable and implement equals.  It should be null whenever the
+     * fields are not in use, so that equal states can be recognized.
+     */
+    protected Object saveUserState() {
+        return null;
+    }
+
+    /**
+     * Restores the fields saved by {@link #saveUserState()}
+     */
+    protected void restoreUserState(Object userState) {
+    }
+
     /**
      * This will be called to reset the the lexer.
      * This is created automatically by JFlex.
@@ -131,6 +214,18 @@ public abstract class DefaultJFlexLexer implements Lexer {
      */
     public abstract String yytext();
 
+    /**
+     * Returns the current lexical state.
+     * This method is automatically implemented by JFlex lexers
+     */
+    public abstract int yystate();
+
+    /**
+     * Enters a new lexical state.
+     * This method is automatically implemented by JFlex lexers
+     */
+    public abstract void yybegin(int newState);
+
     /**
      * Return the char number from beginning of input stream.
      * This is NOT implemented by JFlex, so the code must be